@@ -0,0 +1,517 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import eu.giulioquaresima.quava.functions.CharUnaryOperator;
+
+/**
+ * A mutable trie whose nodes are not objects, but indexes into a few parallel arrays
+ * (a struct of arrays): the label of every node, its parent, its first child and its next sibling,
+ * the children of a node being chained in increasing order of label.
+ * Only the keys and the values are objects, so the garbage collector scans
+ * a handful of large arrays instead of millions of small nodes.
+ * <p>
+ * Finding a child costs a linear scan of the siblings, which is cheap for
+ * the small fan-outs of the deep levels; the nodes freed by the removals are
+ * chained in a free list and reused by the following insertions.
+ * <p>
+ * The keys are ordered, and translated, like in a {@link TrieMap}; the map is not thread safe.
+ *
+ * @author Giulio Quaresima (giulio.quaresima--at--gmail.com)
+ */
+public class ArrayTrieMap<V> extends AbstractMap<String, V>
+{
+	private static final int ROOT = 0;
+	/**
+	 * The root is never a child nor a sibling, so its index means "none"
+	 */
+	private static final int NONE = 0;
+	private static final int INITIAL_CAPACITY = 16;
+	private static final String ROOT_KEY = "";
+
+	private final CharUnaryOperator charTranslator;
+
+	private char[] labels;
+	private int[] parents;
+	private int[] firstChildren;
+	/**
+	 * The next sibling of every node, or the next free node of every free node
+	 */
+	private int[] nextSiblings;
+	/**
+	 * The original key of every element, <code>null</code> for the other nodes
+	 */
+	private String[] keys;
+	private Object[] values;
+
+	/**
+	 * The count of the used slots of the arrays, free nodes included
+	 */
+	private int nodeCount;
+	private int freeNodes;
+	private int freeHead;
+	private int size;
+
+	public ArrayTrieMap(CharUnaryOperator charTranslator)
+	{
+		this.charTranslator = Optional.ofNullable(charTranslator).orElseGet(CharUnaryOperator::identity);
+		clear();
+	}
+	public ArrayTrieMap()
+	{
+		this(null);
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	@Override
+	public boolean containsKey(Object key)
+	{
+		return nodeOf(key) >= 0;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V get(Object key)
+	{
+		int node = nodeOf(key);
+		return node >= 0 ? (V) values[node] : null;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V put(String key, V value)
+	{
+		if (key == null)
+		{
+			throw new IllegalArgumentException("key", new NullPointerException());
+		}
+		int node = ROOT;
+		for (int depth = 0; depth < key.length(); depth++)
+		{
+			node = childOrCreate(node, charTranslator.applyAsChar(key.charAt(depth)));
+		}
+		V previous = (V) values[node];
+		if (keys[node] == null)
+		{
+			size++;
+		}
+		keys[node] = key;
+		values[node] = value;
+		return previous;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V remove(Object key)
+	{
+		int node = nodeOf(key);
+		if (node < 0)
+		{
+			return null;
+		}
+		V previous = (V) values[node];
+		removeNode(node);
+		return previous;
+	}
+
+	@Override
+	public void clear()
+	{
+		labels = new char[INITIAL_CAPACITY];
+		parents = new int[INITIAL_CAPACITY];
+		firstChildren = new int[INITIAL_CAPACITY];
+		nextSiblings = new int[INITIAL_CAPACITY];
+		keys = new String[INITIAL_CAPACITY];
+		values = new Object[INITIAL_CAPACITY];
+		nodeCount = 1; // the root
+		freeNodes = 0;
+		freeHead = NONE;
+		size = 0;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void forEach(BiConsumer<? super String, ? super V> action)
+	{
+		Objects.requireNonNull(action);
+		for (int node = firstElement(); node >= 0; node = nextElement(node))
+		{
+			action.accept(keys[node], (V) values[node]);
+		}
+	}
+
+	@Override
+	public Set<Entry<String, V>> entrySet()
+	{
+		return new EntrySet();
+	}
+
+	/**
+	 * @return the count of the nodes in use, the root included
+	 */
+	public int nodeCount()
+	{
+		return nodeCount - freeNodes;
+	}
+
+	/**
+	 * Shrinks the arrays to the highest node in use; the free nodes below it are kept.
+	 */
+	public void trimToSize()
+	{
+		while (nodeCount > 1 && isFree(nodeCount - 1))
+		{
+			nodeCount--;
+		}
+		freeHead = NONE;
+		freeNodes = 0;
+		for (int node = nodeCount - 1; node > ROOT; node--)
+		{
+			if (isFree(node))
+			{
+				free(node);
+			}
+		}
+		resize(Math.max(nodeCount, INITIAL_CAPACITY));
+	}
+
+	/**
+	 * @return the node of the element {@code key}, or {@code -1}
+	 */
+	private int nodeOf(Object key)
+	{
+		if (ROOT_KEY.equals(key))
+		{
+			return keys[ROOT] != null ? ROOT : -1;
+		}
+		int node = find(key);
+		return node != NONE ? node : -1;
+	}
+
+	/**
+	 * @return the node of the nonempty element {@code key}, or {@link #NONE}
+	 */
+	private int find(Object keyObj)
+	{
+		if ( ! (keyObj instanceof String) )
+		{
+			return NONE;
+		}
+		String key = (String) keyObj;
+		int node = ROOT;
+		for (int depth = 0; depth < key.length(); depth++)
+		{
+			node = child(node, charTranslator.applyAsChar(key.charAt(depth)));
+			if (node == NONE)
+			{
+				return NONE;
+			}
+		}
+		return keys[node] != null ? node : NONE;
+	}
+
+	private int child(int node, char label)
+	{
+		int child = firstChildren[node];
+		while (child != NONE && labels[child] < label)
+		{
+			child = nextSiblings[child];
+		}
+		return child != NONE && labels[child] == label ? child : NONE;
+	}
+
+	private int childOrCreate(int node, char label)
+	{
+		int previous = NONE, child = firstChildren[node];
+		while (child != NONE && labels[child] < label)
+		{
+			previous = child;
+			child = nextSiblings[child];
+		}
+		if (child != NONE && labels[child] == label)
+		{
+			return child;
+		}
+		int created = allocate();
+		labels[created] = label;
+		parents[created] = node;
+		firstChildren[created] = NONE;
+		nextSiblings[created] = child;
+		if (previous == NONE)
+		{
+			firstChildren[node] = created;
+		}
+		else
+		{
+			nextSiblings[previous] = created;
+		}
+		return created;
+	}
+
+	private int allocate()
+	{
+		if (freeHead != NONE)
+		{
+			int node = freeHead;
+			freeHead = nextSiblings[node];
+			freeNodes--;
+			return node;
+		}
+		if (nodeCount == labels.length)
+		{
+			resize(labels.length * 2);
+		}
+		return nodeCount++;
+	}
+
+	private void resize(int capacity)
+	{
+		labels = Arrays.copyOf(labels, capacity);
+		parents = Arrays.copyOf(parents, capacity);
+		firstChildren = Arrays.copyOf(firstChildren, capacity);
+		nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+		keys = Arrays.copyOf(keys, capacity);
+		values = Arrays.copyOf(values, capacity);
+	}
+
+	/**
+	 * Clears the element {@code node}, then frees it and its ancestors as long as they are empty.
+	 */
+	private void removeNode(int node)
+	{
+		keys[node] = null;
+		values[node] = null;
+		size--;
+		while (node != ROOT && keys[node] == null && firstChildren[node] == NONE)
+		{
+			int parent = parents[node];
+			unlinkChild(parent, node);
+			free(node);
+			node = parent;
+		}
+	}
+
+	private void unlinkChild(int parent, int node)
+	{
+		if (firstChildren[parent] == node)
+		{
+			firstChildren[parent] = nextSiblings[node];
+		}
+		else
+		{
+			int previous = firstChildren[parent];
+			while (nextSiblings[previous] != node)
+			{
+				previous = nextSiblings[previous];
+			}
+			nextSiblings[previous] = nextSiblings[node];
+		}
+	}
+
+	private void free(int node)
+	{
+		parents[node] = -1;
+		nextSiblings[node] = freeHead;
+		freeHead = node;
+		freeNodes++;
+	}
+
+	private boolean isFree(int node)
+	{
+		return parents[node] < 0;
+	}
+
+	/**
+	 * @return the node following {@code node} in pre-order, or {@link #NONE} at the end
+	 */
+	private int successor(int node)
+	{
+		if (firstChildren[node] != NONE)
+		{
+			return firstChildren[node];
+		}
+		while (node != ROOT)
+		{
+			if (nextSiblings[node] != NONE)
+			{
+				return nextSiblings[node];
+			}
+			node = parents[node];
+		}
+		return NONE;
+	}
+
+	/**
+	 * @return the first element in pre-order, or {@code -1} if the map is empty
+	 */
+	private int firstElement()
+	{
+		return keys[ROOT] != null ? ROOT : nextElement(ROOT);
+	}
+
+	/**
+	 * @return the element following {@code node} in pre-order, or {@code -1}
+	 */
+	private int nextElement(int node)
+	{
+		do
+		{
+			node = successor(node);
+		}
+		while (node != NONE && keys[node] == null);
+		return node != NONE ? node : -1;
+	}
+
+	private class EntrySet extends AbstractSet<Entry<String, V>>
+	{
+		@Override
+		public int size()
+		{
+			return size;
+		}
+
+		@Override
+		public Iterator<Entry<String, V>> iterator()
+		{
+			return new EntryIterator();
+		}
+
+		@Override
+		public void clear()
+		{
+			ArrayTrieMap.this.clear();
+		}
+	}
+
+	/**
+	 * Walks the nodes in pre-order following the parent and sibling links, so it needs no stack;
+	 * the next element is found before the current one is returned, so that removing
+	 * the current one, which frees only the current node and its ancestors, is safe.
+	 */
+	private class EntryIterator implements Iterator<Entry<String, V>>
+	{
+		private int next = firstElement();
+		private int last = -1;
+
+		@Override
+		public boolean hasNext()
+		{
+			return next >= 0;
+		}
+
+		@Override
+		public Entry<String, V> next()
+		{
+			if (next < 0)
+			{
+				throw new NoSuchElementException("The iteration has no more elements");
+			}
+			last = next;
+			next = nextElement(next);
+			return new NodeEntry(last);
+		}
+
+		@Override
+		public void remove()
+		{
+			if (last < 0)
+			{
+				throw new IllegalStateException("The next method has not yet been called, or the remove method has already been called after the last call to the next method");
+			}
+			removeNode(last);
+			last = -1;
+		}
+	}
+
+	/**
+	 * A view of an element, which writes the values through
+	 */
+	private class NodeEntry implements Entry<String, V>
+	{
+		private final int node;
+		private final String key;
+
+		NodeEntry(int node)
+		{
+			this.node = node;
+			this.key = keys[node];
+		}
+
+		@Override
+		public String getKey()
+		{
+			return key;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public V getValue()
+		{
+			return keys[node] == key ? (V) values[node] : null;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public V setValue(V value)
+		{
+			if (keys[node] != key)
+			{
+				throw new IllegalStateException("The entry has been removed");
+			}
+			V previous = (V) values[node];
+			values[node] = value;
+			return previous;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hashCode(key) ^ Objects.hashCode(getValue());
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (this == obj)
+				return true;
+			if ( ! (obj instanceof Map.Entry) )
+				return false;
+			Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+			return Objects.equals(key, other.getKey()) && Objects.equals(getValue(), other.getValue());
+		}
+
+		@Override
+		public String toString()
+		{
+			return key + "=" + getValue();
+		}
+	}
+}
@@ -0,0 +1,559 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A table of binary prefixes, such as the CIDR blocks of a routing table,
+ * answering {@link #longestPrefixMatch(byte[]) longest prefix match} queries:
+ * the value of the longest prefix of a given address.
+ * <p>
+ * The addresses have a fixed width, a multiple of 8 bits, and are consumed a byte at a time:
+ * every node of the trie is a block of 256 slots, one for each value of the next byte,
+ * so an IPv4 lookup visits at most 4 nodes and an IPv6 lookup at most 16.
+ * A prefix whose length is not a multiple of 8 is expanded over all the slots it covers
+ * in its last node, each slot remembering the longest prefix covering it,
+ * so the lookups never backtrack: the descent stops at the first missing child,
+ * the deepest non empty slot met holding the answer.
+ * <p>
+ * The trie is path compressed: a node exists only where a prefix ends or where
+ * two paths branch, and a child may consume a byte several levels below its parent,
+ * the bytes in between being checked against the path recorded in the child.
+ * Since a node holds some KB of slots, a sparse table, like an IPv6 one with long prefixes,
+ * takes at most two nodes per prefix instead of one per byte.
+ * The nodes are stored in a few large arrays, and {@link #longestPrefixMatch(int)},
+ * {@link #longestPrefixMatch(long)} and {@link #longestPrefixMatch(long, long)}
+ * read the addresses straight from primitives, allocating nothing.
+ * <p>
+ * The values cannot be <code>null</code>. The trie is not thread safe,
+ * but can be read by many threads as long as it is not modified.
+ *
+ * @author Giulio Quaresima (giulio.quaresima--at--gmail.com)
+ */
+public class BinaryPrefixTrie<V>
+{
+	private static final int STRIDE = 8;
+	private static final int FANOUT = 1 << STRIDE;
+	/**
+	 * The prefixes of 0 to {@link #STRIDE} bits ending in a node, laid out like a binary heap:
+	 * the prefix {@code bits} of length {@code r} is at {@code (1 << r) | bits}
+	 */
+	private static final int PREFIXES = 2 * FANOUT;
+	private static final int ROOT = 0;
+	private static final int INITIAL_NODES = 16;
+
+	private final int addressBits;
+	private final int addressBytes;
+	/**
+	 * The child of every slot, or {@link #ROOT} for none, since the root is nobody's child
+	 */
+	private int[] children;
+	/**
+	 * For every slot, one plus the index in {@link #prefixValues} of the longest prefix,
+	 * ending in the slot's node, which covers it; zero if there is none
+	 */
+	private int[] matches;
+	private Object[] prefixValues;
+	/**
+	 * The index of the byte consumed by every node: the prefixes ending in a node
+	 * are {@code 8 * level} to {@code 8 * level + 8} bits long
+	 */
+	private int[] levels;
+	/**
+	 * The first {@code level} bytes of the addresses reaching every node,
+	 * {@link #addressBytes} per node
+	 */
+	private byte[] paths;
+	private int[] parentSlots;
+	private int[] prefixCounts;
+	private int[] childCounts;
+	private int[] freeNodes;
+	private int freeCount;
+	private int nodeCount;
+	private int size;
+
+	/**
+	 * @param addressBits the width of the addresses, a positive multiple of 8, e.g. 32 for IPv4 and 128 for IPv6
+	 */
+	public BinaryPrefixTrie(int addressBits)
+	{
+		if (addressBits <= 0 || addressBits % STRIDE != 0)
+		{
+			throw new IllegalArgumentException("addressBits must be a positive multiple of 8");
+		}
+		this.addressBits = addressBits;
+		this.addressBytes = addressBits / STRIDE;
+		clear();
+	}
+
+	public int addressBits()
+	{
+		return addressBits;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	/**
+	 * @return the count of the nodes in use, the root included
+	 */
+	public int nodeCount()
+	{
+		return nodeCount - freeCount;
+	}
+
+	public void clear()
+	{
+		children = new int[INITIAL_NODES * FANOUT];
+		matches = new int[INITIAL_NODES * FANOUT];
+		prefixValues = new Object[INITIAL_NODES * PREFIXES];
+		levels = new int[INITIAL_NODES];
+		paths = new byte[INITIAL_NODES * addressBytes];
+		parentSlots = new int[INITIAL_NODES];
+		prefixCounts = new int[INITIAL_NODES];
+		childCounts = new int[INITIAL_NODES];
+		freeNodes = new int[INITIAL_NODES];
+		freeCount = 0;
+		nodeCount = 1; // the root
+		size = 0;
+	}
+
+	/**
+	 * @param address the address, in network byte order; the bits after the prefix are ignored
+	 * @param prefixLength the length of the prefix in bits, from 0 to {@link #addressBits()}
+	 * @param value
+	 * @return the previous value of the prefix, or <code>null</code>
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(byte[] address, int prefixLength, V value)
+	{
+		Objects.requireNonNull(value);
+		checkPrefix(address, prefixLength);
+		int depth = depth(prefixLength);
+		int node = ROOT;
+		while (levels[node] < depth)
+		{
+			int slot = slot(node, address[levels[node]]);
+			int child = children[slot];
+			if (child == ROOT)
+			{
+				// A new leaf, straight at the level where the prefix ends
+				child = allocate(slot, address, depth); // may replace the arrays
+				children[slot] = child;
+				childCounts[node]++;
+				node = child;
+				break;
+			}
+			int level = levels[node] + 1;
+			int limit = Math.min(levels[child], depth);
+			while (level < limit && paths[child * addressBytes + level] == address[level])
+			{
+				level++;
+			}
+			if (level == levels[child])
+			{
+				node = child;
+				continue;
+			}
+			// The paths diverge, or the prefix ends, above the child: split the edge
+			int middle = allocate(slot, address, level);
+			children[slot] = middle;
+			int middleSlot = slot(middle, paths[child * addressBytes + level]);
+			children[middleSlot] = child;
+			parentSlots[child] = middleSlot;
+			childCounts[middle] = 1;
+			node = middle;
+		}
+		int length = prefixLength - depth * STRIDE;
+		int bits = bits(address, depth, length);
+		int index = node * PREFIXES + ((1 << length) | bits);
+		V previous = (V) prefixValues[index];
+		if (previous == null)
+		{
+			size++;
+			prefixCounts[node]++;
+		}
+		prefixValues[index] = value;
+		refresh(node, length, bits);
+		return previous;
+	}
+
+	/**
+	 * @see #put(byte[], int, Object)
+	 */
+	public V put(int address, int prefixLength, V value)
+	{
+		checkWidth(Integer.SIZE);
+		return put(toBytes(address, Integer.BYTES), prefixLength, value);
+	}
+
+	/**
+	 * @see #put(byte[], int, Object)
+	 */
+	public V put(long address, int prefixLength, V value)
+	{
+		checkWidth(Long.SIZE);
+		return put(toBytes(address, Long.BYTES), prefixLength, value);
+	}
+
+	/**
+	 * @param address
+	 * @param prefixLength
+	 * @return the value of exactly this prefix, or <code>null</code>
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(byte[] address, int prefixLength)
+	{
+		int node = find(address, prefixLength);
+		if (node < 0)
+		{
+			return null;
+		}
+		int length = prefixLength - depth(prefixLength) * STRIDE;
+		return (V) prefixValues[node * PREFIXES + ((1 << length) | bits(address, depth(prefixLength), length))];
+	}
+
+	/**
+	 * @param address
+	 * @param prefixLength
+	 * @return the previous value of the prefix, or <code>null</code>
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(byte[] address, int prefixLength)
+	{
+		int node = find(address, prefixLength);
+		if (node < 0)
+		{
+			return null;
+		}
+		int depth = depth(prefixLength);
+		int length = prefixLength - depth * STRIDE;
+		int bits = bits(address, depth, length);
+		int index = node * PREFIXES + ((1 << length) | bits);
+		V previous = (V) prefixValues[index];
+		if (previous != null)
+		{
+			prefixValues[index] = null;
+			size--;
+			prefixCounts[node]--;
+			refresh(node, length, bits);
+			prune(node);
+		}
+		return previous;
+	}
+
+	/**
+	 * @param address an address of {@link #addressBits()} bits, in network byte order
+	 * @return the value of the longest prefix of {@code address}, or <code>null</code>
+	 */
+	@SuppressWarnings("unchecked")
+	public V longestPrefixMatch(byte[] address)
+	{
+		if (address.length * STRIDE < addressBits)
+		{
+			throw new IllegalArgumentException(String.format("The address must be %d bits long", addressBits));
+		}
+		int match = 0;
+		int node = ROOT;
+		while (true)
+		{
+			int level = levels[node];
+			int slot = slot(node, address[level]);
+			if (matches[slot] != 0)
+			{
+				match = matches[slot];
+			}
+			int child = children[slot];
+			if (child == ROOT)
+			{
+				break;
+			}
+			// The bytes skipped by the edge must be the ones recorded in the child
+			int childLevel = levels[child];
+			int path = child * addressBytes;
+			int skipped = level + 1;
+			while (skipped < childLevel && paths[path + skipped] == address[skipped])
+			{
+				skipped++;
+			}
+			if (skipped < childLevel)
+			{
+				break;
+			}
+			node = child;
+		}
+		return match != 0 ? (V) prefixValues[match - 1] : null;
+	}
+
+	/**
+	 * The lookup of a 32 bits address, such as an IPv4 one.
+	 *
+	 * @see #longestPrefixMatch(byte[])
+	 */
+	public V longestPrefixMatch(int address)
+	{
+		checkWidth(Integer.SIZE);
+		return lookup((long) address << Integer.SIZE, 0L);
+	}
+
+	/**
+	 * The lookup of a 64 bits address.
+	 *
+	 * @see #longestPrefixMatch(byte[])
+	 */
+	public V longestPrefixMatch(long address)
+	{
+		checkWidth(Long.SIZE);
+		return lookup(address, 0L);
+	}
+
+	/**
+	 * The lookup of a 128 bits address, such as an IPv6 one.
+	 *
+	 * @param high the first 64 bits of the address
+	 * @param low the last 64 bits of the address
+	 *
+	 * @see #longestPrefixMatch(byte[])
+	 */
+	public V longestPrefixMatch(long high, long low)
+	{
+		checkWidth(2 * Long.SIZE);
+		return lookup(high, low);
+	}
+
+	/**
+	 * The lookup of an address of up to 128 bits, aligned to the left of {@code high}
+	 */
+	@SuppressWarnings("unchecked")
+	private V lookup(long high, long low)
+	{
+		int match = 0;
+		int node = ROOT;
+		while (true)
+		{
+			int level = levels[node];
+			int slot = (node << STRIDE) | byteAt(high, low, level);
+			if (matches[slot] != 0)
+			{
+				match = matches[slot];
+			}
+			int child = children[slot];
+			if (child == ROOT)
+			{
+				break;
+			}
+			int childLevel = levels[child];
+			int path = child * addressBytes;
+			int skipped = level + 1;
+			while (skipped < childLevel && (paths[path + skipped] & 0xFF) == byteAt(high, low, skipped))
+			{
+				skipped++;
+			}
+			if (skipped < childLevel)
+			{
+				break;
+			}
+			node = child;
+		}
+		return match != 0 ? (V) prefixValues[match - 1] : null;
+	}
+
+	/**
+	 * @return the node where the prefix ends, or {@code -1}
+	 */
+	private int find(byte[] address, int prefixLength)
+	{
+		checkPrefix(address, prefixLength);
+		int depth = depth(prefixLength);
+		int node = ROOT;
+		while (levels[node] < depth)
+		{
+			int child = children[slot(node, address[levels[node]])];
+			if (child == ROOT || levels[child] > depth)
+			{
+				return -1;
+			}
+			for (int level = levels[node] + 1; level < levels[child]; level++)
+			{
+				if (paths[child * addressBytes + level] != address[level])
+				{
+					return -1;
+				}
+			}
+			node = child;
+		}
+		return node;
+	}
+
+	/**
+	 * Recomputes the best match of the slots covered by the prefix {@code bits}
+	 * of length {@code length} in {@code node}.
+	 */
+	private void refresh(int node, int length, int bits)
+	{
+		int first = bits << (STRIDE - length);
+		int last = (bits + 1) << (STRIDE - length);
+		for (int slot = first; slot < last; slot++)
+		{
+			int match = 0;
+			for (int prefixLength = STRIDE; prefixLength >= 0; prefixLength--)
+			{
+				int index = node * PREFIXES + ((1 << prefixLength) | (slot >>> (STRIDE - prefixLength)));
+				if (prefixValues[index] != null)
+				{
+					match = index + 1;
+					break;
+				}
+			}
+			matches[(node << STRIDE) | slot] = match;
+		}
+	}
+
+	/**
+	 * Frees {@code node} and its ancestors as long as they hold neither prefixes nor children,
+	 * then splices out the first one left with no prefixes and a single child.
+	 */
+	private void prune(int node)
+	{
+		while (node != ROOT && prefixCounts[node] == 0 && childCounts[node] == 0)
+		{
+			int parentSlot = parentSlots[node];
+			int parent = parentSlot >>> STRIDE;
+			children[parentSlot] = ROOT;
+			childCounts[parent]--;
+			freeNodes[freeCount++] = node;
+			node = parent;
+		}
+		if (node != ROOT && prefixCounts[node] == 0 && childCounts[node] == 1)
+		{
+			int slot = node << STRIDE;
+			while (children[slot] == ROOT)
+			{
+				slot++;
+			}
+			int child = children[slot];
+			children[slot] = ROOT;
+			childCounts[node] = 0;
+			int parentSlot = parentSlots[node];
+			children[parentSlot] = child;
+			parentSlots[child] = parentSlot;
+			freeNodes[freeCount++] = node;
+		}
+	}
+
+	/**
+	 * @return a node consuming the byte {@code level} of the addresses starting like {@code address}
+	 */
+	private int allocate(int parentSlot, byte[] address, int level)
+	{
+		int node;
+		if (freeCount > 0)
+		{
+			node = freeNodes[--freeCount];
+		}
+		else
+		{
+			if (nodeCount == parentSlots.length)
+			{
+				int capacity = parentSlots.length * 2;
+				children = Arrays.copyOf(children, capacity * FANOUT);
+				matches = Arrays.copyOf(matches, capacity * FANOUT);
+				prefixValues = Arrays.copyOf(prefixValues, capacity * PREFIXES);
+				levels = Arrays.copyOf(levels, capacity);
+				paths = Arrays.copyOf(paths, capacity * addressBytes);
+				parentSlots = Arrays.copyOf(parentSlots, capacity);
+				prefixCounts = Arrays.copyOf(prefixCounts, capacity);
+				childCounts = Arrays.copyOf(childCounts, capacity);
+				freeNodes = Arrays.copyOf(freeNodes, capacity);
+			}
+			node = nodeCount++;
+		}
+		levels[node] = level;
+		System.arraycopy(address, 0, paths, node * addressBytes, level);
+		parentSlots[node] = parentSlot;
+		return node;
+	}
+
+	private void checkPrefix(byte[] address, int prefixLength)
+	{
+		if (prefixLength < 0 || prefixLength > addressBits)
+		{
+			throw new IllegalArgumentException(String.format("The prefix length must be between 0 and %d", addressBits));
+		}
+		if (address.length * STRIDE < prefixLength)
+		{
+			throw new IllegalArgumentException("The address is shorter than the prefix");
+		}
+	}
+
+	private void checkWidth(int bits)
+	{
+		if (addressBits != bits)
+		{
+			throw new IllegalStateException(String.format("The addresses of this trie are %d bits long, not %d", addressBits, bits));
+		}
+	}
+
+	/**
+	 * @return the level of the node where a prefix of {@code prefixLength} bits ends:
+	 * the root holds the prefixes of 0 to 8 bits, the nodes of level 1 those of 9 to 16 bits and so on
+	 */
+	private static int depth(int prefixLength)
+	{
+		return prefixLength == 0 ? 0 : (prefixLength - 1) / STRIDE;
+	}
+
+	/**
+	 * @return the first {@code length} bits of the {@code depth}-th byte of {@code address}
+	 */
+	private static int bits(byte[] address, int depth, int length)
+	{
+		return length == 0 ? 0 : (address[depth] & 0xFF) >>> (STRIDE - length);
+	}
+
+	/**
+	 * @return the {@code level}-th byte of the 128 bits address {@code high}, {@code low}
+	 */
+	private static int byteAt(long high, long low, int level)
+	{
+		long chunk = level < Long.BYTES ? high : low;
+		return (int) (chunk >>> ((Long.BYTES - 1 - (level & (Long.BYTES - 1))) * STRIDE)) & 0xFF;
+	}
+
+	private static int slot(int node, byte b)
+	{
+		return (node << STRIDE) | (b & 0xFF);
+	}
+
+	private static byte[] toBytes(long address, int length)
+	{
+		byte[] bytes = new byte[length];
+		for (int index = length - 1; index >= 0; index--)
+		{
+			bytes[index] = (byte) address;
+			address >>>= STRIDE;
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,690 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import eu.giulioquaresima.quava.functions.CharUnaryOperator;
+
+/**
+ * A {@link TrieMap} which survives restarts: every {@link #put(String, Object)},
+ * {@link #remove(Object)} and {@link #clear()} is appended to a write-ahead log,
+ * and a full snapshot of the map is periodically written as a checkpoint,
+ * after which the log is truncated. On construction the map is recovered
+ * by loading the last checkpoint and replaying the tail of the log.
+ * <p>
+ * The log is group-committed: the operations are encoded into an in-memory
+ * buffer, which is written and forced to the disk only when it exceeds
+ * {@link #setGroupCommitSize(int) the group commit size}, or when
+ * {@link #commit()}, {@link #checkpoint()} or {@link #close()} are called.
+ * Operations which have not been committed yet may be lost on a crash,
+ * a torn record at the end of the log is detected by its checksum and discarded.
+ * <p>
+ * The views returned by {@link #keySet()}, {@link #values()} and {@link #entrySet()}
+ * are unmodifiable, since their changes could not be logged.
+ * Like {@link TrieMap}, this class is not thread safe.
+ *
+ * @author Giulio Quaresima (giulio.quaresima--at--gmail.com)
+ */
+public class DurableTrieMap<V> implements Map<String, V>, Closeable
+{
+	static final String CHECKPOINT_FILE_NAME = "trie.checkpoint";
+	static final String LOG_FILE_NAME = "trie.wal";
+
+	private static final int CHECKPOINT_MAGIC = 0x51545243; // QTRC
+	private static final int RECORD_HEADER_LENGTH = Integer.BYTES * 2;
+
+	private static final byte PUT = 1;
+	private static final byte REMOVE = 2;
+	private static final byte CLEAR = 3;
+
+	private final TrieMap<V> trieMap;
+	private final Path directory;
+	private final ValueCodec<V> codec;
+	private final FileChannel log;
+	private final RecordBuffer pending = new RecordBuffer();
+	private final DataOutputStream pendingOutput = new DataOutputStream(pending);
+	private final CRC32 crc = new CRC32();
+
+	private int groupCommitSize = 64 * 1024;
+	private long checkpointInterval = 1 << 20;
+	private long operationsSinceCheckpoint = 0;
+	private boolean closed = false;
+
+	/**
+	 * Opens, or creates, a durable map stored inside {@code directory}, recovering its content.
+	 *
+	 * @param directory the directory containing the checkpoint and the log, it is created if it does not exist
+	 * @param codec the codec of the values
+	 * @param charTranslator see {@link TrieMap#TrieMap(CharUnaryOperator)}
+	 * @throws IOException if the directory cannot be accessed, or the checkpoint is corrupted
+	 */
+	public DurableTrieMap(Path directory, ValueCodec<V> codec, CharUnaryOperator charTranslator) throws IOException
+	{
+		this.trieMap = new TrieMap<>(charTranslator);
+		this.directory = Files.createDirectories(directory);
+		this.codec = Objects.requireNonNull(codec);
+		loadCheckpoint();
+		this.log = FileChannel.open(directory.resolve(LOG_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try
+		{
+			replayLog();
+		}
+		catch (IOException | RuntimeException e)
+		{
+			log.close();
+			throw e;
+		}
+	}
+	public DurableTrieMap(Path directory, ValueCodec<V> codec) throws IOException
+	{
+		this(directory, codec, null);
+	}
+
+	/**
+	 * @param groupCommitSize the amount of bytes of pending log records
+	 * which triggers a commit, default is 64 KiB
+	 */
+	public void setGroupCommitSize(int groupCommitSize)
+	{
+		if (groupCommitSize < 0)
+		{
+			throw new IllegalArgumentException("groupCommitSize");
+		}
+		this.groupCommitSize = groupCommitSize;
+	}
+
+	/**
+	 * @param checkpointInterval the count of logged operations which triggers
+	 * a checkpoint, default is 2<sup>20</sup>; zero or less disables the automatic checkpoints
+	 */
+	public void setCheckpointInterval(long checkpointInterval)
+	{
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	@Override
+	public V put(String key, V value)
+	{
+		if (key == null)
+		{
+			throw new IllegalArgumentException("key", new NullPointerException());
+		}
+		ensureOpen();
+		append(PUT, key, value);
+		V previous = trieMap.put(key, value);
+		logged();
+		return previous;
+	}
+
+	@Override
+	public V remove(Object key)
+	{
+		ensureOpen();
+		if (trieMap.containsKey(key))
+		{
+			append(REMOVE, (String) key, null);
+			V previous = trieMap.remove(key);
+			logged();
+			return previous;
+		}
+		return null;
+	}
+
+	@Override
+	public void putAll(Map<? extends String, ? extends V> m)
+	{
+		m.forEach(this::put);
+	}
+
+	@Override
+	public void clear()
+	{
+		ensureOpen();
+		append(CLEAR, null, null);
+		trieMap.clear();
+		logged();
+	}
+
+	@Override
+	public V get(Object key)
+	{
+		return trieMap.get(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key)
+	{
+		return trieMap.containsKey(key);
+	}
+
+	@Override
+	public boolean containsValue(Object value)
+	{
+		return trieMap.containsValue(value);
+	}
+
+	@Override
+	public int size()
+	{
+		return trieMap.size();
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return trieMap.isEmpty();
+	}
+
+	@Override
+	public Set<String> keySet()
+	{
+		return Collections.unmodifiableSet(trieMap.keySet());
+	}
+
+	@Override
+	public Collection<V> values()
+	{
+		return Collections.unmodifiableCollection(trieMap.values());
+	}
+
+	@Override
+	public Set<Entry<String, V>> entrySet()
+	{
+		return Collections.unmodifiableSet(trieMap.entrySet());
+	}
+
+	/**
+	 * @see TrieMap#findAll(CharSequence, TrieMap.Visitor)
+	 */
+	public int findAll(CharSequence charSequence, TrieMap.Visitor<V> visitor)
+	{
+		return trieMap.findAll(charSequence, visitor);
+	}
+
+	/**
+	 * Writes the pending log records and forces them to the disk.
+	 *
+	 * @throws IOException
+	 */
+	public void commit() throws IOException
+	{
+		ensureOpen();
+		if (pending.size() > 0)
+		{
+			ByteBuffer buffer = ByteBuffer.wrap(pending.buffer(), 0, pending.size());
+			while (buffer.hasRemaining())
+			{
+				log.write(buffer);
+			}
+			pending.reset();
+			log.force(false);
+		}
+	}
+
+	/**
+	 * Writes a full snapshot of the map, atomically replacing the previous one,
+	 * and then truncates the log.
+	 *
+	 * @throws IOException
+	 */
+	public void checkpoint() throws IOException
+	{
+		writeCheckpoint();
+		/*
+		 * If we crash here, the whole log will be replayed over the new checkpoint,
+		 * which is harmless: the log has been committed before the snapshot was taken,
+		 * so the checkpoint reflects every operation in the log, and replaying them
+		 * in order over it leads to the same state.
+		 */
+		log.truncate(0);
+		log.force(true);
+		operationsSinceCheckpoint = 0;
+	}
+
+	/**
+	 * Commits the pending records, so that the log matches the map, then writes
+	 * the snapshot and renames it into place; the log is left untruncated.
+	 */
+	void writeCheckpoint() throws IOException
+	{
+		ensureOpen();
+		commit();
+		Path checkpoint = directory.resolve(CHECKPOINT_FILE_NAME);
+		Path temporary = directory.resolve(CHECKPOINT_FILE_NAME + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			CheckedOutputStream checkedOutputStream = new CheckedOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024), new CRC32());
+			DataOutputStream output = new DataOutputStream(checkedOutputStream);
+			output.writeInt(CHECKPOINT_MAGIC);
+			output.writeInt(trieMap.size());
+			for (Entry<String, V> entry : trieMap.entrySet())
+			{
+				writeKey(output, entry.getKey());
+				writeValue(output, entry.getValue());
+			}
+			output.flush();
+			ByteBuffer checksum = ByteBuffer.allocate(Long.BYTES).putLong(checkedOutputStream.getChecksum().getValue());
+			checksum.flip();
+			while (checksum.hasRemaining())
+			{
+				channel.write(checksum);
+			}
+			channel.force(true);
+		}
+		Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		forceDirectory();
+	}
+
+	/**
+	 * Commits the pending log records and closes the log.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if ( ! closed )
+		{
+			try
+			{
+				commit();
+			}
+			finally
+			{
+				closed = true;
+				log.close();
+			}
+		}
+	}
+
+	/**
+	 * Appends a record to the pending ones; it is called before the map is changed,
+	 * so that if the value cannot be encoded neither the map nor the log change.
+	 */
+	private void append(byte operation, String key, V value)
+	{
+		try
+		{
+			pendingOutput.writeByte(operation);
+			if (operation != CLEAR)
+			{
+				writeKey(pendingOutput, key);
+			}
+			if (operation == PUT)
+			{
+				writeValue(pendingOutput, value);
+			}
+		}
+		catch (IOException e)
+		{
+			pending.abortRecord();
+			throw new UncheckedIOException(e);
+		}
+		catch (RuntimeException e)
+		{
+			pending.abortRecord();
+			throw e;
+		}
+		pending.endRecord();
+	}
+
+	/**
+	 * Commits the pending records or takes a checkpoint if it is time to,
+	 * once the operation just appended has been applied to the map.
+	 */
+	private void logged()
+	{
+		try
+		{
+			operationsSinceCheckpoint++;
+			if (checkpointInterval > 0 && operationsSinceCheckpoint >= checkpointInterval)
+			{
+				checkpoint();
+			}
+			else if (pending.size() >= groupCommitSize)
+			{
+				commit();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Forces the renaming of the checkpoint to the disk, where the platform allows
+	 * to open a directory: it does not on Windows, where the renaming is durable anyway.
+	 */
+	private void forceDirectory() throws IOException
+	{
+		FileChannel channel;
+		try
+		{
+			channel = FileChannel.open(directory, StandardOpenOption.READ);
+		}
+		catch (IOException e)
+		{
+			return;
+		}
+		try (FileChannel directoryChannel = channel)
+		{
+			directoryChannel.force(true);
+		}
+	}
+
+	private void ensureOpen()
+	{
+		if (closed)
+		{
+			throw new IllegalStateException("The map has been closed");
+		}
+	}
+
+	private void loadCheckpoint() throws IOException
+	{
+		Path checkpoint = directory.resolve(CHECKPOINT_FILE_NAME);
+		try (InputStream inputStream = Files.newInputStream(checkpoint))
+		{
+			CheckedInputStream checkedInputStream = new CheckedInputStream(new BufferedInputStream(inputStream, 64 * 1024), new CRC32());
+			DataInputStream input = new DataInputStream(checkedInputStream);
+			if (input.readInt() != CHECKPOINT_MAGIC)
+			{
+				throw new IOException(String.format("%s is not a checkpoint", checkpoint));
+			}
+			for (int count = input.readInt(); count > 0; count--)
+			{
+				trieMap.put(readKey(input), readValue(input));
+			}
+			long checksum = checkedInputStream.getChecksum().getValue();
+			if (checksum != input.readLong())
+			{
+				throw new IOException(String.format("The checkpoint %s is corrupted", checkpoint));
+			}
+		}
+		catch (NoSuchFileException e)
+		{
+			// Nothing to recover
+		}
+	}
+
+	/**
+	 * Replays the log records, stopping at the first torn or corrupted one,
+	 * where the log is then truncated.
+	 */
+	private void replayLog() throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+		long position = 0, length = log.size();
+		while (position + RECORD_HEADER_LENGTH <= length)
+		{
+			header.clear();
+			readFully(header, position);
+			int recordLength = header.getInt(0);
+			if (recordLength <= 0 || position + RECORD_HEADER_LENGTH + recordLength > length)
+			{
+				break;
+			}
+			ByteBuffer record = ByteBuffer.allocate(recordLength);
+			readFully(record, position + RECORD_HEADER_LENGTH);
+			crc.reset();
+			crc.update(record.array(), 0, recordLength);
+			if ((int) crc.getValue() != header.getInt(Integer.BYTES))
+			{
+				break;
+			}
+			apply(new DataInputStream(new ByteArrayInputStream(record.array())));
+			position += RECORD_HEADER_LENGTH + recordLength;
+			operationsSinceCheckpoint++;
+		}
+		if (position < length)
+		{
+			log.truncate(position);
+			log.force(true);
+		}
+		log.position(position);
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			if (log.read(buffer, position + buffer.position()) < 0)
+			{
+				throw new IOException("Unexpected end of the log");
+			}
+		}
+	}
+
+	private void apply(DataInput input) throws IOException
+	{
+		byte operation = input.readByte();
+		switch (operation)
+		{
+		case PUT:
+			String key = readKey(input);
+			trieMap.put(key, readValue(input));
+			break;
+		case REMOVE:
+			trieMap.remove(readKey(input));
+			break;
+		case CLEAR:
+			trieMap.clear();
+			break;
+		default:
+			throw new IOException(String.format("Unknown log operation %d", operation));
+		}
+	}
+
+	private void writeKey(DataOutput output, String key) throws IOException
+	{
+		output.writeInt(key.length());
+		output.writeChars(key);
+	}
+
+	private String readKey(DataInput input) throws IOException
+	{
+		char[] chars = new char[input.readInt()];
+		for (int index = 0; index < chars.length; index++)
+		{
+			chars[index] = input.readChar();
+		}
+		return new String(chars);
+	}
+
+	private void writeValue(DataOutput output, V value) throws IOException
+	{
+		output.writeBoolean(value != null);
+		if (value != null)
+		{
+			codec.write(value, output);
+		}
+	}
+
+	private V readValue(DataInput input) throws IOException
+	{
+		if (input.readBoolean())
+		{
+			return codec.read(input);
+		}
+		return null;
+	}
+
+	/**
+	 * Accumulates the log records, each one framed by its length and checksum.
+	 */
+	private class RecordBuffer extends ByteArrayOutputStream
+	{
+		private int recordStart = 0;
+
+		RecordBuffer()
+		{
+			super(8 * 1024);
+			reset();
+		}
+
+		/**
+		 * Fills the header of the current record, and reserves the room for the next one.
+		 */
+		void endRecord()
+		{
+			int recordLength = count - recordStart - RECORD_HEADER_LENGTH;
+			crc.reset();
+			crc.update(buf, recordStart + RECORD_HEADER_LENGTH, recordLength);
+			putInt(recordStart, recordLength);
+			putInt(recordStart + Integer.BYTES, (int) crc.getValue());
+			recordStart = count;
+			write(new byte[RECORD_HEADER_LENGTH], 0, RECORD_HEADER_LENGTH);
+		}
+
+		/**
+		 * Discards the partially written current record.
+		 */
+		void abortRecord()
+		{
+			count = recordStart + RECORD_HEADER_LENGTH;
+		}
+
+		private void putInt(int index, int value)
+		{
+			buf[index] = (byte) (value >>> 24);
+			buf[index + 1] = (byte) (value >>> 16);
+			buf[index + 2] = (byte) (value >>> 8);
+			buf[index + 3] = (byte) value;
+		}
+
+		byte[] buffer()
+		{
+			return buf;
+		}
+
+		/**
+		 * @return the count of bytes of the completed records
+		 */
+		@Override
+		public synchronized int size()
+		{
+			return recordStart;
+		}
+
+		@Override
+		public synchronized void reset()
+		{
+			super.reset();
+			recordStart = 0;
+			write(new byte[RECORD_HEADER_LENGTH], 0, RECORD_HEADER_LENGTH);
+		}
+	}
+
+	/**
+	 * Encodes and decodes the values of a {@link DurableTrieMap}.
+	 */
+	public interface ValueCodec<V>
+	{
+		void write(V value, DataOutput output) throws IOException;
+
+		V read(DataInput input) throws IOException;
+
+		static ValueCodec<String> strings()
+		{
+			return new ValueCodec<String>()
+			{
+				@Override
+				public void write(String value, DataOutput output) throws IOException
+				{
+					output.writeInt(value.length());
+					output.writeChars(value);
+				}
+
+				@Override
+				public String read(DataInput input) throws IOException
+				{
+					char[] chars = new char[input.readInt()];
+					for (int index = 0; index < chars.length; index++)
+					{
+						chars[index] = input.readChar();
+					}
+					return new String(chars);
+				}
+			};
+		}
+
+		/**
+		 * @return a codec based on the Java serialization: it is general, but neither compact nor fast
+		 */
+		static <V extends Serializable> ValueCodec<V> serialized()
+		{
+			return new ValueCodec<V>()
+			{
+				@Override
+				public void write(V value, DataOutput output) throws IOException
+				{
+					ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+					try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(bytes))
+					{
+						objectOutputStream.writeObject(value);
+					}
+					output.writeInt(bytes.size());
+					output.write(bytes.toByteArray());
+				}
+
+				@SuppressWarnings("unchecked")
+				@Override
+				public V read(DataInput input) throws IOException
+				{
+					byte[] bytes = new byte[input.readInt()];
+					input.readFully(bytes);
+					try (ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(bytes)))
+					{
+						return (V) objectInputStream.readObject();
+					}
+					catch (ClassNotFoundException e)
+					{
+						throw new IOException(e);
+					}
+				}
+			};
+		}
+	}
+}
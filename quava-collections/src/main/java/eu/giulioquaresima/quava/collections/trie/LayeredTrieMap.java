@@ -0,0 +1,529 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import eu.giulioquaresima.quava.functions.CharUnaryOperator;
+
+/**
+ * A map for large, mostly static, dictionaries receiving a trickle of updates,
+ * organized like a log-structured merge tree: the updates go to a small mutable
+ * {@link TrieMap}, the delta, where the removals of the keys of the lower layers are recorded
+ * as tombstones, on top of a read-only base. When the delta reaches
+ * {@link #DEFAULT_MERGE_THRESHOLD the merge threshold}, it is frozen
+ * and folded into a new base in the background, which then replaces the old one:
+ * meanwhile the reads consult the frozen delta too, and the updates go to a new delta.
+ * The base is a {@link TrieMap} which is never modified once built, whose children's
+ * windows are trimmed to their children; it is not an {@link ArrayTrieMap}, since
+ * the layers are walked together char by char, and folded by the set operations of {@link TrieMap}.
+ * <p>
+ * {@link #findAll(CharSequence, TrieMap.Visitor)} and the ordered iteration
+ * visit the layers together in a single pass, the upper layers shadowing the lower ones.
+ * <p>
+ * The point operations and {@link #findAll(CharSequence, TrieMap.Visitor)} are synchronized,
+ * so they can be called by many threads; the views are unmodifiable, and
+ * must not be iterated while the map is modified. Code point translators are not supported.
+ *
+ * @author Giulio Quaresima (giulio.quaresima--at--gmail.com)
+ */
+public class LayeredTrieMap<V> extends AbstractMap<String, V>
+{
+	public static final int DEFAULT_MERGE_THRESHOLD = 4096;
+
+	/**
+	 * The value of a removed key in the delta
+	 */
+	private static final Object TOMBSTONE = new Object();
+
+	private final CharUnaryOperator charTranslator;
+	private final int mergeThreshold;
+	private final Executor executor;
+
+	private TrieMap<V> base;
+	/**
+	 * The delta being folded into a new base, <code>null</code> when no merge is in progress
+	 */
+	private TrieMap<Object> frozenDelta;
+	private TrieMap<Object> delta;
+	private CompletableFuture<Void> merging = CompletableFuture.completedFuture(null);
+	/**
+	 * Incremented by {@link #clear()}, so that a merge started before is discarded
+	 */
+	private long generation = 0;
+	private int size;
+
+	/**
+	 * @param base the initial content, which is copied
+	 * @param mergeThreshold the size of the delta which starts a merge
+	 * @param executor the executor running the merges
+	 * @throws IllegalArgumentException if {@code base} has a code point translator
+	 */
+	public LayeredTrieMap(TrieMap<V> base, int mergeThreshold, Executor executor)
+	{
+		if (base.codePointTranslator() != null)
+		{
+			throw new IllegalArgumentException("A map with a code point translator is not supported");
+		}
+		if (mergeThreshold < 1)
+		{
+			throw new IllegalArgumentException("mergeThreshold must be positive");
+		}
+		this.charTranslator = base.charTranslator();
+		this.mergeThreshold = mergeThreshold;
+		this.executor = Objects.requireNonNull(executor);
+		this.base = base.union(new TrieMap<>(charTranslator), (baseValue, value) -> baseValue);
+		this.delta = new TrieMap<>(charTranslator);
+		this.size = base.size();
+	}
+	/**
+	 * A map merging on the {@link ForkJoinPool#commonPool() common pool}
+	 * when the delta reaches {@link #DEFAULT_MERGE_THRESHOLD} keys.
+	 */
+	public LayeredTrieMap(TrieMap<V> base)
+	{
+		this(base, DEFAULT_MERGE_THRESHOLD, ForkJoinPool.commonPool());
+	}
+	public LayeredTrieMap(CharUnaryOperator charTranslator)
+	{
+		this(new TrieMap<>(charTranslator));
+	}
+	public LayeredTrieMap()
+	{
+		this((CharUnaryOperator) null);
+	}
+
+	@Override
+	public synchronized int size()
+	{
+		return size;
+	}
+
+	@Override
+	public synchronized boolean containsKey(Object key)
+	{
+		return lookup(key, true) != null;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public synchronized V get(Object key)
+	{
+		Entry<String, ?> entry = lookup(key, true);
+		return entry != null ? (V) entry.getValue() : null;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public synchronized V put(String key, V value)
+	{
+		Entry<String, ?> previous = lookup(key, true);
+		V previousValue = previous != null ? (V) previous.getValue() : null;
+		delta.put(key, value);
+		if (previous == null)
+		{
+			size++;
+		}
+		mergeIfFull();
+		return previousValue;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public synchronized V remove(Object key)
+	{
+		Entry<String, ?> previous = lookup(key, true);
+		if (previous == null)
+		{
+			return null;
+		}
+		V previousValue = (V) previous.getValue();
+		if (lookup(key, false) != null)
+		{
+			delta.put((String) key, TOMBSTONE);
+		}
+		else
+		{
+			delta.remove(key);
+		}
+		size--;
+		mergeIfFull();
+		return previousValue;
+	}
+
+	@Override
+	public synchronized void clear()
+	{
+		generation++;
+		base = new TrieMap<>(charTranslator);
+		frozenDelta = null;
+		delta = new TrieMap<>(charTranslator);
+		size = 0;
+	}
+
+	/**
+	 * The entries are in the order of a {@link TrieMap} and, like their views, are unmodifiable.
+	 */
+	@Override
+	public Set<Entry<String, V>> entrySet()
+	{
+		return new EntrySet();
+	}
+
+	/**
+	 * @see TrieMap#findAll(CharSequence, TrieMap.Visitor)
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized int findAll(CharSequence charSequence, TrieMap.Visitor<V> visitor)
+	{
+		List<Cursor<?>> cursors = new ArrayList<>();
+		for (TrieMap<?> layer : layers())
+		{
+			cursors.add(new Cursor<>(layer));
+		}
+		int count = 0;
+		int textIndex = 0;
+		while (textIndex < charSequence.length())
+		{
+			cursors.forEach(Cursor::reset);
+			Entry<String, ?> longest = null;
+			int end = textIndex;
+			boolean alive = true;
+			for (int index = textIndex; alive && index < charSequence.length(); index++)
+			{
+				char c = charSequence.charAt(index);
+				alive = false;
+				Entry<String, ?> element = null;
+				for (Cursor<?> cursor : cursors)
+				{
+					if (cursor.advance(c))
+					{
+						alive = true;
+						if (element == null)
+						{
+							element = cursor.element();
+						}
+					}
+				}
+				if (element != null && element.getValue() != TOMBSTONE)
+				{
+					longest = element;
+					end = index + 1;
+				}
+			}
+			if (longest != null)
+			{
+				visitor.matched((Entry<String, V>) longest, textIndex, end);
+				textIndex = end;
+				count++;
+			}
+			else
+			{
+				textIndex++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Freezes the delta and folds it into a new base in the background,
+	 * unless it is empty or a merge is already in progress.
+	 *
+	 * @return a future completed when the new base has replaced the old one
+	 */
+	public synchronized CompletableFuture<Void> merge()
+	{
+		if (frozenDelta != null || delta.isEmpty())
+		{
+			return merging;
+		}
+		TrieMap<V> oldBase = base;
+		TrieMap<Object> folding = delta;
+		long mergeGeneration = generation;
+		frozenDelta = folding;
+		delta = new TrieMap<>(charTranslator);
+		merging = CompletableFuture
+				.supplyAsync(() -> fold(oldBase, folding), executor)
+				.whenComplete((newBase, failure) -> swap(mergeGeneration, newBase))
+				.thenAccept(newBase -> {});
+		return merging;
+	}
+
+	/**
+	 * @return the count of the keys, tombstones included, in the delta and in the frozen delta
+	 */
+	public synchronized int deltaSize()
+	{
+		return delta.size() + (frozenDelta != null ? frozenDelta.size() : 0);
+	}
+
+	private void mergeIfFull()
+	{
+		if (delta.size() >= mergeThreshold)
+		{
+			merge();
+		}
+	}
+
+	/**
+	 * @param key
+	 * @param includeDelta if {@code false} only the frozen delta and the base are consulted
+	 * @return the visible entry of {@code key}, or <code>null</code>
+	 */
+	private Entry<String, ?> lookup(Object key, boolean includeDelta)
+	{
+		if ( ! (key instanceof String) )
+		{
+			return null;
+		}
+		String string = (String) key;
+		Entry<String, ?> entry = includeDelta ? find(delta, string) : null;
+		if (entry == null && frozenDelta != null)
+		{
+			entry = find(frozenDelta, string);
+		}
+		if (entry == null)
+		{
+			entry = find(base, string);
+		}
+		return entry != null && entry.getValue() != TOMBSTONE ? entry : null;
+	}
+
+	/**
+	 * @return the layers from the top down, for the operations walking all of them at once
+	 */
+	private List<TrieMap<?>> layers()
+	{
+		List<TrieMap<?>> layers = new ArrayList<>(3);
+		layers.add(delta);
+		if (frozenDelta != null)
+		{
+			layers.add(frozenDelta);
+		}
+		layers.add(base);
+		return layers;
+	}
+
+	private static <W> Entry<String, W> find(TrieMap<W> layer, String key)
+	{
+		TrieMap<W>.Node node = layer.root();
+		for (int index = 0; node != null && index < key.length(); index++)
+		{
+			node = layer.next(node, key.charAt(index));
+		}
+		return node != null && node.getKey() != null ? node : null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <V> TrieMap<V> fold(TrieMap<V> base, TrieMap<Object> delta)
+	{
+		TrieMap<V> puts = new TrieMap<>(base.charTranslator());
+		TrieMap<Object> removals = new TrieMap<>(base.charTranslator());
+		delta.forEach((key, value) -> {
+			if (value == TOMBSTONE)
+			{
+				removals.put(key, value);
+			}
+			else
+			{
+				puts.put(key, (V) value);
+			}
+		});
+		TrieMap<V> folded = base.difference(removals);
+		folded.mergeFrom(puts, (baseValue, value) -> value);
+		// Never modified again, so its windows are trimmed once and for all
+		folded.compact();
+		return folded;
+	}
+
+	/**
+	 * Replaces the base with the folded one or, if the fold failed,
+	 * gives the frozen delta back to the delta, whose entries are newer.
+	 */
+	private synchronized void swap(long mergeGeneration, TrieMap<V> newBase)
+	{
+		if (mergeGeneration != generation)
+		{
+			return;
+		}
+		if (newBase != null)
+		{
+			base = newBase;
+		}
+		else
+		{
+			TrieMap<Object> newerDelta = delta;
+			delta = frozenDelta;
+			newerDelta.forEach(delta::put);
+		}
+		frozenDelta = null;
+	}
+
+	/**
+	 * Walks a layer char by char
+	 */
+	private static final class Cursor<W>
+	{
+		private final TrieMap<W> layer;
+		private TrieMap<W>.Node node;
+
+		Cursor(TrieMap<W> layer)
+		{
+			this.layer = layer;
+		}
+
+		void reset()
+		{
+			node = layer.root();
+		}
+
+		/**
+		 * @return {@code false} if the layer has no path for the chars seen so far
+		 */
+		boolean advance(char c)
+		{
+			if (node != null)
+			{
+				node = layer.next(node, c);
+			}
+			return node != null;
+		}
+
+		Entry<String, W> element()
+		{
+			return node.getKey() != null ? node : null;
+		}
+	}
+
+	private class EntrySet extends AbstractSet<Entry<String, V>>
+	{
+		@Override
+		public int size()
+		{
+			return LayeredTrieMap.this.size();
+		}
+
+		@Override
+		public Iterator<Entry<String, V>> iterator()
+		{
+			synchronized (LayeredTrieMap.this)
+			{
+				return new MergingIterator(layers());
+			}
+		}
+	}
+
+	/**
+	 * Merges the ordered iterations of the layers: among the entries with the same key
+	 * the one of the topmost layer is returned, unless it is a tombstone.
+	 */
+	private class MergingIterator implements Iterator<Entry<String, V>>
+	{
+		private final List<Iterator<? extends Entry<String, ?>>> iterators = new ArrayList<>();
+		private final List<Entry<String, ?>> heads = new ArrayList<>();
+		private Entry<String, V> next;
+
+		MergingIterator(List<TrieMap<?>> layers)
+		{
+			for (TrieMap<?> layer : layers)
+			{
+				Iterator<? extends Entry<String, ?>> iterator = layer.entrySet().iterator();
+				iterators.add(iterator);
+				heads.add(iterator.hasNext() ? iterator.next() : null);
+			}
+			advance();
+		}
+
+		@SuppressWarnings("unchecked")
+		private void advance()
+		{
+			next = null;
+			while (next == null)
+			{
+				Entry<String, ?> top = null;
+				for (Entry<String, ?> head : heads)
+				{
+					if (head != null && (top == null || compare(head.getKey(), top.getKey()) < 0))
+					{
+						top = head;
+					}
+				}
+				if (top == null)
+				{
+					return;
+				}
+				String key = top.getKey();
+				for (int layer = 0; layer < heads.size(); layer++)
+				{
+					Entry<String, ?> head = heads.get(layer);
+					if (head != null && compare(head.getKey(), key) == 0)
+					{
+						Iterator<? extends Entry<String, ?>> iterator = iterators.get(layer);
+						heads.set(layer, iterator.hasNext() ? iterator.next() : null);
+					}
+				}
+				if (top.getValue() != TOMBSTONE)
+				{
+					next = (Entry<String, V>) top;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return next != null;
+		}
+
+		@Override
+		public Entry<String, V> next()
+		{
+			if (next == null)
+			{
+				throw new NoSuchElementException("The iteration has no more elements");
+			}
+			Entry<String, V> current = next;
+			advance();
+			return current;
+		}
+	}
+
+	/**
+	 * Compares two keys in the order of a {@link TrieMap}, that is by their translated chars.
+	 */
+	private int compare(String left, String right)
+	{
+		int length = Math.min(left.length(), right.length());
+		for (int index = 0; index < length; index++)
+		{
+			int difference = charTranslator.applyAsChar(left.charAt(index)) - charTranslator.applyAsChar(right.charAt(index));
+			if (difference != 0)
+			{
+				return difference;
+			}
+		}
+		return left.length() - right.length();
+	}
+}
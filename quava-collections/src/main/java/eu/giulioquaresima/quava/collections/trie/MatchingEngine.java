@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+/**
+ * Scans a text for the keys of a dictionary, reporting their leftmost-longest,
+ * non overlapping, occurrences, with the semantics of {@link TrieMap#findAll(CharSequence, TrieMap.Visitor)}.
+ * Different engines suit different dictionaries: {@link #of(TrieMap)} picks one
+ * according to the lengths of the keys.
+ *
+ * @author Giulio Quaresima (giulio.quaresima--at--gmail.com)
+ */
+@FunctionalInterface
+public interface MatchingEngine<V>
+{
+	/**
+	 * @param charSequence
+	 * @param visitor
+	 * @return the count of the occurrences
+	 */
+	int findAll(CharSequence charSequence, TrieMap.Visitor<V> visitor);
+
+	/**
+	 * The map itself, which probes the trie at every position of the text, is the best engine
+	 * for short keys; when all the keys are at least {@link ShiftTableEngine#MINIMUM_KEY_LENGTH}
+	 * chars long, a {@link ShiftTableEngine} is compiled instead, which skips over
+	 * the text that cannot start any key.
+	 * <p>
+	 * The engine must be chosen again after the keys of the map have changed.
+	 *
+	 * @param trieMap
+	 * @return the engine best suited to {@code trieMap}
+	 */
+	static <V> MatchingEngine<V> of(TrieMap<V> trieMap)
+	{
+		if (trieMap.codePointTranslator() == null && trieMap.minimumKeyLength() >= ShiftTableEngine.MINIMUM_KEY_LENGTH)
+		{
+			return new ShiftTableEngine<>(trieMap);
+		}
+		return trieMap;
+	}
+}
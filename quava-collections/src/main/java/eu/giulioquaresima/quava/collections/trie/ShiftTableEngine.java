@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import eu.giulioquaresima.quava.functions.CharUnaryOperator;
+
+/**
+ * A {@link MatchingEngine} for dictionaries of long keys, after Wu and Manber:
+ * given the length {@code m} of the shortest key, the block of chars ending
+ * at the {@code m}-th char of a candidate start position is hashed, and a shift table
+ * tells how far the candidate can be moved without skipping any occurrence.
+ * Only when the shift is zero the candidate is verified against the trie,
+ * which finds the longest key starting there, so the results are the same
+ * of {@link TrieMap#findAll(CharSequence, TrieMap.Visitor)}.
+ * <p>
+ * The longer the shortest key, the longer the average shift: with keys of
+ * at least {@link #MINIMUM_KEY_LENGTH} chars, most of the text is never probed.
+ * <p>
+ * The shift table is computed from the keys present when the engine is created,
+ * so it must be created again after the keys of the map have changed;
+ * otherwise, it is thread safe as long as the map is not modified.
+ *
+ * @author Giulio Quaresima (giulio.quaresima--at--gmail.com)
+ */
+public class ShiftTableEngine<V> implements MatchingEngine<V>
+{
+	/**
+	 * The shortest key length for which {@link MatchingEngine#of(TrieMap)} prefers this engine
+	 */
+	public static final int MINIMUM_KEY_LENGTH = 6;
+
+	private final TrieMap<V> trieMap;
+	private final CharUnaryOperator charTranslator;
+	/**
+	 * The length of the shortest key
+	 */
+	private final int window;
+	private final int blockSize;
+	private final int mask;
+	private final int[] shifts;
+
+	/**
+	 * @param trieMap
+	 * @throws IllegalArgumentException if {@code trieMap} is empty, contains the empty key,
+	 * or has a code point translator
+	 */
+	public ShiftTableEngine(TrieMap<V> trieMap)
+	{
+		this.trieMap = Objects.requireNonNull(trieMap);
+		if (trieMap.codePointTranslator() != null)
+		{
+			throw new IllegalArgumentException("A map with a code point translator is not supported");
+		}
+		this.charTranslator = trieMap.charTranslator();
+		this.window = trieMap.minimumKeyLength();
+		if (window < 1)
+		{
+			throw new IllegalArgumentException("The map must contain at least one key, and no empty key");
+		}
+		// Blocks of a single char degenerate into Horspool's algorithm, fine for short keys
+		this.blockSize = window >= 4 ? 2 : 1;
+		int[] pathCount = new int[1];
+		trieMap.forEachPath(window, path -> pathCount[0]++);
+		long blockCount = (long) pathCount[0] * (window - blockSize + 1);
+		int tableSize = Integer.highestOneBit((int) Math.max(256, Math.min(1 << 16, 4 * blockCount)) - 1) << 1;
+		this.mask = tableSize - 1;
+		this.shifts = new int[tableSize];
+		Arrays.fill(shifts, window - blockSize + 1);
+		trieMap.forEachPath(window, path -> {
+			for (int end = blockSize; end <= window; end++)
+			{
+				int hash = blockSize == 1 ? path[end - 1] : hash(path[end - 2], path[end - 1]);
+				hash &= mask;
+				shifts[hash] = Math.min(shifts[hash], window - end);
+			}
+		});
+	}
+
+	@Override
+	public int findAll(CharSequence charSequence, TrieMap.Visitor<V> visitor)
+	{
+		int count = 0;
+		TrieMap<V>.Match match = trieMap.new Match();
+		int length = charSequence.length();
+		int textIndex = 0;
+		while (textIndex + window <= length)
+		{
+			int blockEnd = textIndex + window;
+			int hash = charTranslator.applyAsChar(charSequence.charAt(blockEnd - 1));
+			if (blockSize == 2)
+			{
+				hash = hash(charTranslator.applyAsChar(charSequence.charAt(blockEnd - 2)), (char) hash);
+			}
+			int shift = shifts[hash & mask];
+			if (shift > 0)
+			{
+				textIndex += shift;
+				continue;
+			}
+			trieMap.longestMatch(charSequence, textIndex, length, match);
+			if (match.found())
+			{
+				visitor.matched(match.node, match.start, match.end);
+				textIndex = match.end;
+				count++;
+			}
+			else
+			{
+				textIndex++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the length of the shortest key, i.e. the maximum shift plus the block size minus one
+	 */
+	public int window()
+	{
+		return window;
+	}
+
+	private static int hash(char first, char second)
+	{
+		return (first * 31) ^ second;
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import java.util.Optional;
+
+import eu.giulioquaresima.quava.functions.CharUnaryOperator;
+
+/**
+ * Interns the strings read from char buffers: the canonical {@link String}
+ * of a slice of chars is found walking a {@link TrieMap} straight on the slice,
+ * so that a {@link String} is allocated only the first time a slice is seen,
+ * and every distinct string is retained once, sharing the prefixes in the trie.
+ * <p>
+ * If a {@code charTranslator} is given, the canonical string of a slice is its translation,
+ * for instance its lower case form, so that the slices which differ only by the case
+ * share the same string; since it defines a canonical form, the translator
+ * must be idempotent.
+ * <p>
+ * A bounded pool interns up to {@code maximumSize} strings, then it returns
+ * the canonical strings of the new slices without retaining them,
+ * until it is {@link #clear() cleared}. A pool must not be shared between threads.
+ *
+ * @author Giulio Quaresima (giulio.quaresima--at--gmail.com)
+ */
+public class StringPool
+{
+	private final CharUnaryOperator charTranslator;
+	private final int maximumSize;
+	private final TrieMap<String> strings;
+	private final TrieMap<String>.Match match;
+	private final CharArrayView view = new CharArrayView();
+
+	/**
+	 * @param charTranslator the canonical form of the chars, <code>null</code> for the identity
+	 * @param maximumSize the maximum count of retained strings
+	 */
+	public StringPool(CharUnaryOperator charTranslator, int maximumSize)
+	{
+		if (maximumSize < 0)
+		{
+			throw new IllegalArgumentException("maximumSize must not be negative");
+		}
+		this.charTranslator = Optional.ofNullable(charTranslator).orElseGet(CharUnaryOperator::identity);
+		this.maximumSize = maximumSize;
+		this.strings = new TrieMap<>(this.charTranslator);
+		this.match = strings.new Match();
+	}
+	/**
+	 * An unbounded pool, without translation
+	 */
+	public StringPool()
+	{
+		this(null, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param chars
+	 * @param offset
+	 * @param length
+	 * @return the canonical string of {@code chars[offset, offset + length)}
+	 * @throws IndexOutOfBoundsException if the slice is not inside {@code chars}
+	 */
+	public String intern(char[] chars, int offset, int length)
+	{
+		if (offset < 0 || length < 0 || offset > chars.length - length)
+		{
+			throw new IndexOutOfBoundsException(String.format("offset %d, length %d, array length %d", offset, length, chars.length));
+		}
+		view.chars = chars;
+		view.offset = offset;
+		view.length = length;
+		try
+		{
+			return intern(view, 0, length);
+		}
+		finally
+		{
+			view.chars = null;
+		}
+	}
+
+	/**
+	 * @param chars
+	 * @param start
+	 * @param end
+	 * @return the canonical string of {@code chars[start, end)}
+	 */
+	public String intern(CharSequence chars, int start, int end)
+	{
+		if (start == end)
+		{
+			return "";
+		}
+		strings.longestMatch(chars, start, end, match);
+		if (match.found() && match.end == end)
+		{
+			String string = match.node.getValue();
+			match.node = null;
+			return string;
+		}
+		char[] translated = new char[end - start];
+		for (int index = start; index < end; index++)
+		{
+			translated[index - start] = charTranslator.applyAsChar(chars.charAt(index));
+		}
+		String string = new String(translated);
+		if (strings.size() < maximumSize)
+		{
+			strings.put(string, string);
+		}
+		return string;
+	}
+
+	/**
+	 * @param chars
+	 * @return the canonical string of {@code chars}
+	 */
+	public String intern(CharSequence chars)
+	{
+		return intern(chars, 0, chars.length());
+	}
+
+	/**
+	 * @return the count of the retained strings
+	 */
+	public int size()
+	{
+		return strings.size();
+	}
+
+	public int maximumSize()
+	{
+		return maximumSize;
+	}
+
+	/**
+	 * Forgets all the retained strings
+	 */
+	public void clear()
+	{
+		strings.clear();
+	}
+
+	/**
+	 * A reusable view of a slice of a {@code char[]}
+	 */
+	private static class CharArrayView implements CharSequence
+	{
+		char[] chars;
+		int offset;
+		int length;
+
+		@Override
+		public int length()
+		{
+			return length;
+		}
+
+		@Override
+		public char charAt(int index)
+		{
+			return chars[offset + index];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end)
+		{
+			return new String(chars, offset + start, end - start);
+		}
+
+		@Override
+		public String toString()
+		{
+			return new String(chars, offset, length);
+		}
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+import eu.giulioquaresima.quava.functions.CharUnaryOperator;
+
+/**
+ * The suffix automaton (the minimal DAWG of all the suffixes) of a text,
+ * which is the inverse index of a {@link TrieMap}: instead of finding which keys
+ * occur in a text, it finds whether, where and how many times a pattern occurs
+ * in the indexed text, in a time proportional to the length of the pattern.
+ * <p>
+ * It is built in linear time, and it has at most {@code 2n - 1} states.
+ * The transitions of every state are stored in a window of the translated chars,
+ * like the children of a {@link TrieMap} node; the other attributes of the states
+ * are kept in parallel arrays. The automaton is immutable, and so thread safe.
+ *
+ * @author Giulio Quaresima (giulio.quaresima--at--gmail.com)
+ */
+public class SuffixAutomaton
+{
+	private static final int[] EMPTY = new int[0];
+
+	private final CharUnaryOperator charTranslator;
+	private final int textLength;
+
+	private int stateCount = 0;
+	/**
+	 * The length of the longest string of each state's class
+	 */
+	private int[] length;
+	/**
+	 * The suffix link of each state
+	 */
+	private int[] link;
+	/**
+	 * The end index (inclusive) of the first occurrence of each state's strings
+	 */
+	private int[] firstEnd;
+	/**
+	 * The count of the end positions of each state's strings
+	 */
+	private int[] occurrences;
+	private char[] offsets;
+	/**
+	 * The transitions windows: every slot contains the target state plus one, or zero
+	 */
+	private int[][] transitions;
+
+	public SuffixAutomaton(CharSequence text, CharUnaryOperator charTranslator)
+	{
+		this.charTranslator = Optional.ofNullable(charTranslator).orElseGet(CharUnaryOperator::identity);
+		this.textLength = text.length();
+		int capacity = Math.max(2, 2 * textLength);
+		length = new int[capacity];
+		link = new int[capacity];
+		firstEnd = new int[capacity];
+		occurrences = new int[capacity];
+		offsets = new char[capacity];
+		transitions = new int[capacity][];
+		build(text);
+	}
+	public SuffixAutomaton(CharSequence text)
+	{
+		this(text, null);
+	}
+
+	/**
+	 * @param pattern
+	 * @return {@code true} if {@code pattern} occurs in the text
+	 */
+	public boolean contains(CharSequence pattern)
+	{
+		return walk(pattern) >= 0;
+	}
+
+	/**
+	 * @param pattern
+	 * @return the count of the (possibly overlapping) occurrences of {@code pattern} in the text,
+	 * the empty pattern occurring at every position from {@code 0} to the length of the text
+	 */
+	public int count(CharSequence pattern)
+	{
+		if (pattern.length() == 0)
+		{
+			return textLength + 1;
+		}
+		int state = walk(pattern);
+		return state >= 0 ? occurrences[state] : 0;
+	}
+
+	/**
+	 * @param pattern
+	 * @return the index of the first occurrence of {@code pattern} in the text, or {@code -1}
+	 */
+	public int indexOf(CharSequence pattern)
+	{
+		if (pattern.length() == 0)
+		{
+			return 0;
+		}
+		int state = walk(pattern);
+		return state >= 0 ? firstEnd[state] - pattern.length() + 1 : -1;
+	}
+
+	/**
+	 * @return the length of the indexed text
+	 */
+	public int length()
+	{
+		return textLength;
+	}
+
+	/**
+	 * @return the count of the states of the automaton
+	 */
+	public int stateCount()
+	{
+		return stateCount;
+	}
+
+	/**
+	 * @return the state reached reading {@code pattern} from the initial state, or {@code -1}
+	 */
+	private int walk(CharSequence pattern)
+	{
+		int state = 0;
+		for (int index = 0; index < pattern.length() && state >= 0; index++)
+		{
+			state = next(state, charTranslator.applyAsChar(pattern.charAt(index)));
+		}
+		return state;
+	}
+
+	private int next(int state, char c)
+	{
+		int[] window = transitions[state];
+		int index = c - offsets[state];
+		if (index >= 0 && index < window.length)
+		{
+			return window[index] - 1;
+		}
+		return -1;
+	}
+
+	private void setNext(int state, char c, int target)
+	{
+		int[] window = transitions[state];
+		int index = c - offsets[state];
+		if (window.length == 0)
+		{
+			window = transitions[state] = new int[1];
+			offsets[state] = c;
+			index = 0;
+		}
+		else if (index < 0)
+		{
+			int[] newWindow = new int[window.length - index];
+			System.arraycopy(window, 0, newWindow, -index, window.length);
+			window = transitions[state] = newWindow;
+			offsets[state] = c;
+			index = 0;
+		}
+		else if (index >= window.length)
+		{
+			window = transitions[state] = Arrays.copyOf(window, index + 1);
+		}
+		window[index] = target + 1;
+	}
+
+	private int newState(int stateLength, int stateLink, int stateFirstEnd)
+	{
+		int state = stateCount++;
+		length[state] = stateLength;
+		link[state] = stateLink;
+		firstEnd[state] = stateFirstEnd;
+		transitions[state] = EMPTY;
+		return state;
+	}
+
+	private void build(CharSequence text)
+	{
+		int last = newState(0, -1, -1);
+		for (int position = 0; position < textLength; position++)
+		{
+			char c = charTranslator.applyAsChar(text.charAt(position));
+			int current = newState(length[last] + 1, 0, position);
+			occurrences[current] = 1;
+			int state = last;
+			while (state >= 0 && next(state, c) < 0)
+			{
+				setNext(state, c, current);
+				state = link[state];
+			}
+			if (state >= 0)
+			{
+				int target = next(state, c);
+				if (length[state] + 1 == length[target])
+				{
+					link[current] = target;
+				}
+				else
+				{
+					int clone = newState(length[state] + 1, link[target], firstEnd[target]);
+					transitions[clone] = transitions[target].clone();
+					offsets[clone] = offsets[target];
+					while (state >= 0 && next(state, c) == target)
+					{
+						setNext(state, c, clone);
+						state = link[state];
+					}
+					link[target] = link[current] = clone;
+				}
+			}
+			last = current;
+		}
+		countOccurrences();
+	}
+
+	/**
+	 * Propagates the occurrences along the suffix links, from the longest states
+	 * to the shortest ones, sorting the states by length with a counting sort.
+	 */
+	private void countOccurrences()
+	{
+		int[] buckets = new int[textLength + 2];
+		for (int state = 0; state < stateCount; state++)
+		{
+			buckets[length[state] + 1]++;
+		}
+		for (int index = 1; index < buckets.length; index++)
+		{
+			buckets[index] += buckets[index - 1];
+		}
+		int[] sorted = new int[stateCount];
+		for (int state = 0; state < stateCount; state++)
+		{
+			sorted[buckets[length[state]]++] = state;
+		}
+		for (int index = stateCount - 1; index > 0; index--)
+		{
+			int state = sorted[index];
+			occurrences[link[state]] += occurrences[state];
+		}
+	}
+}
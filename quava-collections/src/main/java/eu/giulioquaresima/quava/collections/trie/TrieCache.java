@@ -0,0 +1,425 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.ToIntBiFunction;
+
+import eu.giulioquaresima.quava.functions.CharUnaryOperator;
+
+/**
+ * A cache bounded by the total weight of its entries, backed by a {@link TrieMap}.
+ * <p>
+ * The entries are kept in a recency list, so a hit costs the trie lookup
+ * plus a few pointer updates. When the maximum weight is exceeded,
+ * the least recently used entries are evicted and removed from the trie,
+ * pruning the branches which remain empty, so that their memory is really reclaimed.
+ * With {@link EvictionPolicy#TINY_LFU} a small frequency sketch
+ * is also kept, and a new entry is admitted only if it has been requested
+ * at least as frequently as the entry it would evict, while a new value
+ * of a cached key is always admitted.
+ * <p>
+ * All the methods are synchronized, except that {@link #getOrLoad(String, Function)}
+ * does not hold the lock while the loader runs: concurrent misses
+ * of the same key may therefore load it more than once.
+ *
+ * @author Giulio Quaresima (giulio.quaresima--at--gmail.com)
+ */
+public class TrieCache<V>
+{
+	public enum EvictionPolicy
+	{
+		/**
+		 * Least recently used
+		 */
+		LRU,
+		/**
+		 * Least recently used, with a frequency-based admission filter
+		 */
+		TINY_LFU,
+	}
+
+	private final TrieMap<CacheEntry<V>> trieMap;
+	private final CharUnaryOperator charTranslator;
+	private final long maximumWeight;
+	private final ToIntBiFunction<? super String, ? super V> weigher;
+	private final FrequencySketch sketch;
+
+	/**
+	 * Sentinel of the circular recency list: {@code head.next} is the most recently used entry,
+	 * {@code head.previous} the least recently used one.
+	 */
+	private final CacheEntry<V> head = new CacheEntry<>(null, null, 0);
+	private long weight = 0;
+
+	private long hitCount = 0;
+	private long missCount = 0;
+	private long loadCount = 0;
+	private long evictionCount = 0;
+
+	/**
+	 * @param maximumWeight
+	 * @param weigher computes the weight of every entry, it must not be negative
+	 * @param evictionPolicy
+	 * @param charTranslator see {@link TrieMap#TrieMap(CharUnaryOperator)}
+	 * @param expectedSize the expected count of the entries, which sizes the frequency sketch
+	 * of {@link EvictionPolicy#TINY_LFU}: the sketch is widened anyway, and its counts reset,
+	 * whenever the entries outnumber its counters
+	 */
+	public TrieCache(long maximumWeight, ToIntBiFunction<? super String, ? super V> weigher, EvictionPolicy evictionPolicy, CharUnaryOperator charTranslator, int expectedSize)
+	{
+		if (maximumWeight < 0)
+		{
+			throw new IllegalArgumentException("maximumWeight");
+		}
+		if (expectedSize < 0)
+		{
+			throw new IllegalArgumentException("expectedSize");
+		}
+		this.maximumWeight = maximumWeight;
+		this.weigher = Objects.requireNonNull(weigher);
+		this.charTranslator = Optional.ofNullable(charTranslator).orElseGet(CharUnaryOperator::identity);
+		this.trieMap = new TrieMap<>(this.charTranslator);
+		this.sketch = Objects.requireNonNull(evictionPolicy) == EvictionPolicy.TINY_LFU ? new FrequencySketch(expectedSize) : null;
+		head.previous = head.next = head;
+	}
+	/**
+	 * A cache whose frequency sketch, if any, starts small and is widened as the entries grow
+	 * 
+	 * @see #TrieCache(long, ToIntBiFunction, EvictionPolicy, CharUnaryOperator, int)
+	 */
+	public TrieCache(long maximumWeight, ToIntBiFunction<? super String, ? super V> weigher, EvictionPolicy evictionPolicy, CharUnaryOperator charTranslator)
+	{
+		this(maximumWeight, weigher, evictionPolicy, charTranslator, 0);
+	}
+	/**
+	 * A cache bounded by the count of its entries
+	 */
+	public TrieCache(int maximumSize, EvictionPolicy evictionPolicy)
+	{
+		this(maximumSize, (key, value) -> 1, evictionPolicy, null, Math.max(maximumSize, 0));
+	}
+	public TrieCache(int maximumSize)
+	{
+		this(maximumSize, EvictionPolicy.LRU);
+	}
+
+	/**
+	 * @param key
+	 * @return the cached value, or <code>null</code>
+	 */
+	public synchronized V get(String key)
+	{
+		CacheEntry<V> entry = trieMap.get(key);
+		if (sketch != null)
+		{
+			sketch.increment(key);
+		}
+		if (entry != null)
+		{
+			hitCount++;
+			entry.unlink();
+			entry.linkAfter(head);
+			return entry.value;
+		}
+		missCount++;
+		return null;
+	}
+
+	/**
+	 * @param key
+	 * @param loader computes the value of a missing key, a <code>null</code> result is not cached
+	 * @return the cached or loaded value
+	 */
+	public V getOrLoad(String key, Function<? super String, ? extends V> loader)
+	{
+		V value = get(key);
+		if (value == null)
+		{
+			value = loader.apply(key);
+			if (value != null)
+			{
+				synchronized (this)
+				{
+					loadCount++;
+					put(key, value);
+				}
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * @param key
+	 * @param value
+	 * @return {@code true} if the entry has been admitted
+	 */
+	public synchronized boolean put(String key, V value)
+	{
+		Objects.requireNonNull(value);
+		int entryWeight = weigher.applyAsInt(key, value);
+		if (entryWeight < 0)
+		{
+			throw new IllegalArgumentException(String.format("Negative weight for the key %s", key));
+		}
+		if (entryWeight > maximumWeight)
+		{
+			// It would evict everything else, and then itself
+			remove(key);
+			evictionCount++;
+			return false;
+		}
+		CacheEntry<V> entry = new CacheEntry<>(key, value, entryWeight);
+		CacheEntry<V> previous = trieMap.put(key, entry);
+		if (previous != null)
+		{
+			previous.unlink();
+			weight -= previous.weight;
+		}
+		else if (sketch != null)
+		{
+			sketch.ensureCapacity(trieMap.size());
+		}
+		entry.linkAfter(head);
+		weight += entryWeight;
+		// An update bypasses the admission: rejecting it would lose the key's current entry too
+		return evict(previous == null ? entry : null);
+	}
+
+	/**
+	 * @param key
+	 * @return the removed value, or <code>null</code>
+	 */
+	public synchronized V remove(String key)
+	{
+		CacheEntry<V> entry = trieMap.remove(key);
+		if (entry != null)
+		{
+			entry.unlink();
+			weight -= entry.weight;
+			return entry.value;
+		}
+		return null;
+	}
+
+	public synchronized void clear()
+	{
+		trieMap.clear();
+		head.previous = head.next = head;
+		weight = 0;
+	}
+
+	public synchronized int size()
+	{
+		return trieMap.size();
+	}
+
+	public synchronized long weight()
+	{
+		return weight;
+	}
+
+	public synchronized long hitCount()
+	{
+		return hitCount;
+	}
+
+	public synchronized long missCount()
+	{
+		return missCount;
+	}
+
+	/**
+	 * @return the count of the values successfully loaded by {@link #getOrLoad(String, Function)}
+	 */
+	public synchronized long loadCount()
+	{
+		return loadCount;
+	}
+
+	/**
+	 * @return the count of the entries evicted, or not admitted, because of the maximum weight
+	 */
+	public synchronized long evictionCount()
+	{
+		return evictionCount;
+	}
+
+	/**
+	 * @return the ratio of hits over requests, or {@code 1.0} if there were no requests
+	 */
+	public synchronized double hitRate()
+	{
+		long requestCount = hitCount + missCount;
+		return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+	}
+
+	/**
+	 * @param candidate the new entry subject to the admission, or <code>null</code>
+	 * @return {@code false} if the {@code candidate} itself has been evicted
+	 */
+	private boolean evict(CacheEntry<V> candidate)
+	{
+		// The admission is decided once, against the first victim, before anything is evicted
+		if (sketch != null && candidate != null && weight > maximumWeight
+				&& sketch.frequency(candidate.key) < sketch.frequency(head.previous.key))
+		{
+			candidate.unlink();
+			weight -= candidate.weight;
+			trieMap.remove(candidate.key);
+			evictionCount++;
+			return false;
+		}
+		while (weight > maximumWeight)
+		{
+			CacheEntry<V> victim = head.previous;
+			victim.unlink();
+			weight -= victim.weight;
+			trieMap.remove(victim.key);
+			evictionCount++;
+		}
+		return true;
+	}
+
+	private static class CacheEntry<V>
+	{
+		final String key;
+		final V value;
+		final int weight;
+		CacheEntry<V> previous, next;
+
+		CacheEntry(String key, V value, int weight)
+		{
+			this.key = key;
+			this.value = value;
+			this.weight = weight;
+		}
+
+		void unlink()
+		{
+			previous.next = next;
+			next.previous = previous;
+		}
+
+		void linkAfter(CacheEntry<V> entry)
+		{
+			previous = entry;
+			next = entry.next;
+			next.previous = this;
+			entry.next = this;
+		}
+	}
+
+	/**
+	 * A count-min sketch with four rows of saturating counters, whose counts are halved
+	 * after a number of increments proportional to its width, so that the old
+	 * frequencies fade away. The keys are hashed through the {@code charTranslator}.
+	 * The width is the count of the entries rounded up to a power of two,
+	 * between 16 and 2<sup>24</sup> counters per row.
+	 */
+	private class FrequencySketch
+	{
+		private static final int DEPTH = 4;
+		private static final int MAXIMUM_COUNT = 15;
+		private static final int MINIMUM_WIDTH = 16;
+		private static final int MAXIMUM_WIDTH = 1 << 24;
+
+		private byte[][] rows;
+		private int mask;
+		private int sampleSize;
+		private int additions = 0;
+
+		FrequencySketch(int expectedSize)
+		{
+			resize(expectedSize);
+		}
+
+		/**
+		 * Widens the sketch if {@code size} entries outnumber its counters,
+		 * forgetting all the frequencies
+		 */
+		void ensureCapacity(int size)
+		{
+			if (size > rows[0].length && rows[0].length < MAXIMUM_WIDTH)
+			{
+				resize(size);
+			}
+		}
+
+		private void resize(int size)
+		{
+			int width = Integer.highestOneBit(Math.max(MINIMUM_WIDTH, Math.min(size, MAXIMUM_WIDTH)) * 2 - 1);
+			rows = new byte[DEPTH][width];
+			mask = width - 1;
+			sampleSize = width * 10;
+			additions = 0;
+		}
+
+		void increment(String key)
+		{
+			int hash = hash(key);
+			boolean added = false;
+			for (int row = 0; row < DEPTH; row++)
+			{
+				int index = indexOf(hash, row);
+				if (rows[row][index] < MAXIMUM_COUNT)
+				{
+					rows[row][index]++;
+					added = true;
+				}
+			}
+			if (added && ++additions >= sampleSize)
+			{
+				for (byte[] counters : rows)
+				{
+					for (int index = 0; index < counters.length; index++)
+					{
+						counters[index] >>= 1;
+					}
+				}
+				additions /= 2;
+			}
+		}
+
+		int frequency(String key)
+		{
+			int hash = hash(key);
+			int frequency = MAXIMUM_COUNT;
+			for (int row = 0; row < DEPTH; row++)
+			{
+				frequency = Math.min(frequency, rows[row][indexOf(hash, row)]);
+			}
+			return frequency;
+		}
+
+		private int indexOf(int hash, int row)
+		{
+			int h = hash * (0x9E3779B9 + (row << 1));
+			return (h ^ (h >>> 16)) & mask;
+		}
+
+		private int hash(String key)
+		{
+			int hash = 0;
+			for (int index = 0; index < key.length(); index++)
+			{
+				hash = 31 * hash + charTranslator.applyAsChar(key.charAt(index));
+			}
+			return hash ^ (hash >>> 15);
+		}
+	}
+}
@@ -16,6 +16,8 @@ package eu.giulioquaresima.quava.collections.trie;
 
 import java.io.PrintStream;
 import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.AbstractSet;
 import java.util.Collection;
 import java.util.Comparator;
@@ -29,239 +31,1292 @@ import java.util.Optional;
 import java.util.Queue;
 import java.util.Set;
 import java.util.Spliterator;
-import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import eu.giulioquaresima.quava.collections.IteratorUtils;
 import eu.giulioquaresima.quava.functions.CharUnaryOperator;
+import eu.giulioquaresima.quava.functions.CodePointTranslator;
 
 /**
  * 
  * 
  * @author Giulio Quaresima (giulio.quaresima--at--gmail.com, giulio.quaresima--at--unipg.it, giulio.quaresima--at--studenti.unicam.it)
  */
-public class TrieMap<V> implements Map<String, V>
+public class TrieMap<V> implements Map<String, V>, MatchingEngine<V>
 {
 	@SuppressWarnings("unchecked")
 	private final Node[] EMPTY = new TrieMap.Node[0];
 
 	private Node root;
 	private final CharUnaryOperator charTranslator;
+	/**
+	 * If not <code>null</code>, the keys and the texts are translated code point by code point,
+	 * and {@link #charTranslator} is the identity
+	 */
+	private final CodePointTranslator codePointTranslator;
+	/**
+	 * The walkers of the lookups in code point mode, one per thread since the lookups
+	 * can be concurrent; <code>null</code> without a {@link #codePointTranslator}
+	 */
+	private final ThreadLocal<Match> lookups;
 	int size = 0;
 	
+	/**
+	 * The fewest entries worth partitioning by {@link #parallelBuild(Collection, CharUnaryOperator, ForkJoinPool)}
+	 */
+	private static final int MINIMUM_BUILD_GRAIN = 256;
+	
+	/**
+	 * <code>null</code> unless the instrumentation is enabled
+	 */
+	private TrieMapListener listener = null;
+	
+	/**
+	 * An upper bound of the depth of the trie, to size the traversal stacks
+	 */
+	private int depthBound = 0;
+	
+	private int compactionBatchSize = 0;
+	private final List<Node> dirtyNodes = new ArrayList<>();
+	/**
+	 * Set while a bulk operation is scanning the children's windows, which must not be
+	 * compacted under its feet: the batch is flushed when the operation returns
+	 */
+	private boolean compactionDeferred = false;
+	
 	public TrieMap(CharUnaryOperator charTranslator)
 	{
-		this.root = new Node(null);
+		this(charTranslator, null);
+	}
+	public TrieMap()
+	{
+		this(null, null);
+	}
+	private TrieMap(CharUnaryOperator charTranslator, CodePointTranslator codePointTranslator)
+	{
+		this.root = new Node(null, (char) 0);
 		this.charTranslator = Optional.ofNullable(charTranslator).orElseGet(CharUnaryOperator::identity);
+		this.codePointTranslator = codePointTranslator;
+		this.lookups = codePointTranslator != null ? ThreadLocal.withInitial(() -> new Match()) : null;
+	}
+	
+	/**
+	 * Creates a map whose keys, and the texts scanned by {@link #findAll(CharSequence, Visitor)},
+	 * are translated code point by code point while they are walked, without building
+	 * any normalized copy: the surrogate pairs are translated as a whole, and a code point
+	 * can be translated into several ones, like &szlig; into {@code ss} by the
+	 * {@link CodePointTranslator#caseFolding() case folding}.
+	 * A key or a match always spans whole code points of the original text.
+	 * <p>
+	 * The literal chars of a {@link TriePattern} are not translated by this map,
+	 * so they should be written in their translated form.
+	 * 
+	 * @param codePointTranslator
+	 * @return an empty map
+	 */
+	public static <V> TrieMap<V> withCodePointTranslator(CodePointTranslator codePointTranslator)
+	{
+		return new TrieMap<>(null, Objects.requireNonNull(codePointTranslator));
+	}
+	
+	/**
+	 * Builds a map from many, unsorted, entries on {@code pool}: the entries are partitioned
+	 * by their first translated char, and the subtree of every partition is built by its own task,
+	 * which partitions its entries again by their second char while they are many, and so on.
+	 * Every subtree is grafted under its parent as soon as it is built, and the size
+	 * of the map is summed up along the way, so the result is never walked again.
+	 * <p>
+	 * As with {@link #put(String, Object)}, when a key appears more than once the last entry wins.
+	 * 
+	 * @param entries
+	 * @param charTranslator
+	 * @param pool
+	 * @return a new map
+	 */
+	public static <V> TrieMap<V> parallelBuild(Collection<? extends Entry<String, ? extends V>> entries, CharUnaryOperator charTranslator, ForkJoinPool pool)
+	{
+		TrieMap<V> trieMap = new TrieMap<>(charTranslator);
+		Entry<String, ? extends V>[] array = entries.toArray(newEntries(0));
+		// Eight tasks per worker balance the skewed partitions; a single worker gains nothing from partitioning
+		int grain = pool.getParallelism() > 1 ? Math.max(MINIMUM_BUILD_GRAIN, array.length / (8 * pool.getParallelism())) : array.length;
+		trieMap.depthBound = pool.invoke(trieMap.new BuildTask(trieMap.root, array, 0, array.length, 0, grain));
+		trieMap.size = trieMap.root.count;
+		return trieMap;
+	}
+	
+	/**
+	 * @see #parallelBuild(Collection, CharUnaryOperator, ForkJoinPool)
+	 */
+	public static <V> TrieMap<V> parallelBuild(Collection<? extends Entry<String, ? extends V>> entries, CharUnaryOperator charTranslator)
+	{
+		return parallelBuild(entries, charTranslator, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Enables the instrumentation of the lookups, of {@link #findAll(CharSequence, Visitor)}
+	 * and of the growth of the children's windows, for instance by a {@link TrieMetrics}.
+	 * When no listener is set, the instrumentation costs a <code>null</code> check.
+	 * 
+	 * @param listener the listener, or <code>null</code> to disable the instrumentation
+	 */
+	public void setListener(TrieMapListener listener)
+	{
+		this.listener = listener;
+	}
+	
+	@Override
+	public int findAll(CharSequence charSequence, Visitor<V> visitor)
+	{
+		TrieMapListener listener = this.listener;
+		long startTime = listener != null ? System.nanoTime() : 0L;
+		int count = 0;
+		Match match = new Match();
+		int textIndex = 0;
+		while (textIndex < charSequence.length())
+		{
+			longestMatch(charSequence, textIndex, charSequence.length(), match);
+			if (match.found())
+			{
+				visitor.matched(match.node, match.start, match.end);
+				textIndex = match.end;
+				count++;
+			}
+			else if (codePointTranslator != null)
+			{
+				textIndex += Character.charCount(Character.codePointAt(charSequence, textIndex));
+			}
+			else
+			{
+				textIndex++;
+			}
+		}
+		
+		if (listener != null)
+		{
+			listener.scanned(charSequence.length(), count, System.nanoTime() - startTime);
+		}
+		return count;
+	}
+	
+	CharUnaryOperator charTranslator()
+	{
+		return charTranslator;
+	}
+	
+	CodePointTranslator codePointTranslator()
+	{
+		return codePointTranslator;
+	}
+	
+	/**
+	 * @return the root, for the engines walking the trie step by step
+	 * 
+	 * @see #next(Node, char)
+	 */
+	Node root()
+	{
+		return root;
+	}
+	
+	/**
+	 * @param node
+	 * @param c a char, not yet translated
+	 * @return the child of {@code node} labelled with {@code c}, or <code>null</code>;
+	 * the {@link #withCodePointTranslator(CodePointTranslator) code point translator}, if any, is not applied
+	 */
+	Node next(Node node, char c)
+	{
+		return node.child(charTranslator.applyAsChar(c));
+	}
+	
+	/**
+	 * @return the length, in translated chars, of the shortest key, or {@code -1} if the map is empty
+	 */
+	int minimumKeyLength()
+	{
+		List<Node> level = new ArrayList<>();
+		level.add(root);
+		for (int depth = 0; ! level.isEmpty(); depth++)
+		{
+			List<Node> nextLevel = new ArrayList<>();
+			for (Node node : level)
+			{
+				if (node.isElement())
+				{
+					return depth;
+				}
+				for (Node child : node.children)
+				{
+					if (child != null)
+					{
+						nextLevel.add(child);
+					}
+				}
+			}
+			level = nextLevel;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Visits every distinct path of {@code length} edges starting from the root,
+	 * i.e. the distinct prefixes of that length of the (translated) keys.
+	 * 
+	 * @param length
+	 * @param action receives the labels of the path, in an array which is reused
+	 */
+	void forEachPath(int length, Consumer<char[]> action)
+	{
+		forEachPath(root, new char[length], 0, action);
+	}
+	
+	private void forEachPath(Node node, char[] path, int depth, Consumer<char[]> action)
+	{
+		if (depth == path.length)
+		{
+			action.accept(path);
+			return;
+		}
+		for (Node child : node.children)
+		{
+			if (child != null)
+			{
+				path[depth] = child.label;
+				forEachPath(child, path, depth + 1, action);
+			}
+		}
+	}
+	
+	/**
+	 * Finds the longest key which is a prefix of {@code text[from, to)}.
+	 * 
+	 * @param text
+	 * @param from
+	 * @param to
+	 * @param match where the match, if any, is stored
+	 * @return the index where the walk stopped: if it is {@code to}, a longer
+	 * match could be found by extending {@code to}
+	 */
+	int longestMatch(CharSequence text, int from, int to, Match match)
+	{
+		return longestMatch(text, from, to, false, match);
+	}
+	
+	/**
+	 * @param moreText if {@code true}, {@code text} continues after {@code to}, as when it is streamed:
+	 * a high surrogate at {@code to - 1} could be paired with a low one still to come, so the walk
+	 * stops before it; otherwise it is an unpaired surrogate, walked as a code point of its own,
+	 * like {@link String#codePointAt(int)} does for the keys
+	 * @see #longestMatch(CharSequence, int, int, Match)
+	 */
+	int longestMatch(CharSequence text, int from, int to, boolean moreText, Match match)
+	{
+		match.start = from;
+		match.end = from;
+		match.node = null;
+		match.depth = 0;
+		if (codePointTranslator != null)
+		{
+			return longestMatchCodePoints(text, from, to, moreText, match);
+		}
+		Node currentNode = root;
+		int textIndex = from;
+		while (textIndex < to)
+		{
+			currentNode = currentNode.child(charTranslator.applyAsChar(text.charAt(textIndex)));
+			if (currentNode == null)
+			{
+				break;
+			}
+			textIndex++;
+			if (currentNode.isElement())
+			{
+				match.end = textIndex;
+				match.node = currentNode;
+			}
+		}
+		match.depth = textIndex - from;
+		return textIndex;
+	}
+	
+	/**
+	 * The code point version of {@link #longestMatch(CharSequence, int, int, boolean, Match)}:
+	 * a match can end only after all the code points a text's code point is translated into.
+	 */
+	private int longestMatchCodePoints(CharSequence text, int from, int to, boolean moreText, Match match)
+	{
+		int[] translated = match.translated;
+		Node currentNode = root;
+		int textIndex = from;
+		while (textIndex < to)
+		{
+			char c = text.charAt(textIndex);
+			int codePoint = c;
+			if (Character.isHighSurrogate(c))
+			{
+				if (textIndex + 1 == to)
+				{
+					if (moreText)
+					{
+						// The low surrogate could be beyond to
+						return to;
+					}
+				}
+				else if (Character.isLowSurrogate(text.charAt(textIndex + 1)))
+				{
+					codePoint = Character.toCodePoint(c, text.charAt(textIndex + 1));
+				}
+			}
+			int count = codePointTranslator.translate(codePoint, translated);
+			for (int index = 0; index < count && currentNode != null; index++)
+			{
+				currentNode = child(currentNode, translated[index]);
+				if (currentNode != null)
+				{
+					match.depth += Character.charCount(translated[index]);
+				}
+			}
+			if (currentNode == null)
+			{
+				break;
+			}
+			textIndex += Character.charCount(codePoint);
+			if (currentNode.isElement())
+			{
+				match.end = textIndex;
+				match.node = currentNode;
+			}
+		}
+		return textIndex;
+	}
+	
+	/**
+	 * @return the node reached from {@code node} following the UTF-16 chars of {@code codePoint}, or <code>null</code>
+	 */
+	private Node child(Node node, int codePoint)
+	{
+		if (Character.isBmpCodePoint(codePoint))
+		{
+			return node.child((char) codePoint);
+		}
+		Node highSurrogate = node.child(Character.highSurrogate(codePoint));
+		return highSurrogate != null ? highSurrogate.child(Character.lowSurrogate(codePoint)) : null;
+	}
+	
+	/**
+	 * @param key
+	 * @return the chars of the path of {@code key}, still to be translated by {@link #charTranslator}
+	 */
+	private CharSequence path(String key)
+	{
+		if (codePointTranslator == null)
+		{
+			return key;
+		}
+		int[] translated = new int[CodePointTranslator.MAX_EXPANSION];
+		StringBuilder path = new StringBuilder(key.length());
+		for (int index = 0; index < key.length(); )
+		{
+			int codePoint = key.codePointAt(index);
+			int count = codePointTranslator.translate(codePoint, translated);
+			for (int translatedIndex = 0; translatedIndex < count; translatedIndex++)
+			{
+				path.appendCodePoint(translated[translatedIndex]);
+			}
+			index += Character.charCount(codePoint);
+		}
+		return path;
+	}
+	
+	/**
+	 * Finds the entries whose keys match {@code pattern}, walking the trie and pruning
+	 * every subtree which the pattern cannot match any more; the chars 
+	 * of a literal-only part of the pattern are followed directly, without scanning the children.
+	 * 
+	 * @param pattern
+	 * @return a lazy iterator over the matching entries, in the order of the keys
+	 */
+	public Iterator<Entry<String, V>> match(TriePattern pattern)
+	{
+		return new PatternIterator(pattern);
+	}
+	
+	/**
+	 * @param pattern a pattern like {@code ab?d*} or {@code [a-f]x*}
+	 * @return
+	 * 
+	 * @see #match(TriePattern)
+	 * @see TriePattern#compile(String)
+	 */
+	public Iterator<Entry<String, V>> match(String pattern)
+	{
+		return match(TriePattern.compile(pattern));
+	}
+	
+	@Override
+	public V get(Object keyObj)
+	{
+		Node node = getNode(keyObj);
+		if (node != null)
+		{
+			return node.value;
+		}
+		return null;
+	}
+	
+	protected Node getNode(Object keyObj)
+	{
+		if (keyObj instanceof String)
+		{
+			String key = (String) keyObj;
+			if (codePointTranslator != null)
+			{
+				Match match = lookups.get();
+				longestMatch(key, 0, key.length(), match);
+				Node node = key.isEmpty() ? root : match.node;
+				node = node != null && node.isElement() && match.end == key.length() ? node : null;
+				// Do not keep the node reachable from the thread
+				match.node = null;
+				if (listener != null)
+				{
+					listener.lookedUp(node != null, match.depth);
+				}
+				return node;
+			}
+			Node currentNode = root;
+			int depth = 0;
+			for (; depth < key.length() && currentNode != null; depth++)
+			{
+				int index = charTranslator.applyAsChar(key.charAt(depth)) - currentNode.offset;
+				if (index >= 0 && index < currentNode.children.length)
+				{
+					currentNode = currentNode.children[index];
+				}
+				else
+				{
+					currentNode = null;
+				}
+			}
+			boolean hit = currentNode != null && currentNode.key != null;
+			if (listener != null)
+			{
+				listener.lookedUp(hit, currentNode != null ? depth : depth - 1);
+			}
+			if (hit)
+			{
+				assert new CharArrayComparator().compare(currentNode.key, key) == 0 : "Implementation error";
+				return currentNode;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public boolean containsKey(Object key)
+	{
+		return getNode(key) != null;
+	}
+	
+	@Override
+	public V put(String key, V value)
+	{
+		if (key == null)
+		{
+			throw new IllegalArgumentException("key", new NullPointerException());
+		}
+		/*
+		if (value == null)
+		{
+			throw new IllegalArgumentException("value", new NullPointerException());
+		}
+		*/
+		
+		Node node = getOrCreateNode(key);
+		V previous = node.value;
+		node.setElement(key, value);
+		return previous;
+	}
+	
+	/**
+	 * Walks the path of {@code key}, creating the missing nodes.
+	 * 
+	 * @param key
+	 * @return the node of {@code key}, which is not an element if it has just been created;
+	 * if the caller does not make it an element, it must {@link Node#prune()} it
+	 */
+	private Node getOrCreateNode(String key)
+	{
+		if (key == null)
+		{
+			throw new IllegalArgumentException("key", new NullPointerException());
+		}
+		CharSequence path = path(key);
+		depthBound = Math.max(depthBound, path.length());
+		Node currentNode = root;
+		for (int depth = 0; depth < path.length(); depth++)
+		{
+			char currentChar = charTranslator.applyAsChar(path.charAt(depth));
+			int index = currentNode.slot(currentChar);
+			if (currentNode.children[index] == null)
+			{
+				currentNode.children[index] = new Node(currentNode, currentChar);
+			}
+			currentNode = currentNode.children[index];
+		}
+		return currentNode;
+	}
+	
+	/*
+	 * The compute family is overridden so that the path of the key is walked only once,
+	 * while the default implementations call get and then put or remove.
+	 * The semantics are the ones of the default implementations.
+	 */
+	
+	@Override
+	public V putIfAbsent(String key, V value)
+	{
+		Node node = getOrCreateNode(key);
+		V previous = node.value;
+		if (previous == null)
+		{
+			node.setElement(key, value);
+		}
+		return previous;
+	}
+	
+	@Override
+	public V computeIfAbsent(String key, Function<? super String, ? extends V> mappingFunction)
+	{
+		Objects.requireNonNull(mappingFunction);
+		Node node = getOrCreateNode(key);
+		if (node.value != null)
+		{
+			return node.value;
+		}
+		V value = applyOrPrune(node, () -> mappingFunction.apply(key));
+		if (value != null)
+		{
+			node.setElement(key, value);
+		}
+		else if ( ! node.isElement() )
+		{
+			node.prune();
+		}
+		return value;
+	}
+	
+	@Override
+	public V computeIfPresent(String key, BiFunction<? super String, ? super V, ? extends V> remappingFunction)
+	{
+		Objects.requireNonNull(remappingFunction);
+		Node node = getNode(key);
+		if (node != null && node.value != null)
+		{
+			V value = remappingFunction.apply(key, node.value);
+			if (value != null)
+			{
+				node.value = value;
+			}
+			else
+			{
+				node.remove();
+			}
+			return value;
+		}
+		return null;
+	}
+	
+	@Override
+	public V compute(String key, BiFunction<? super String, ? super V, ? extends V> remappingFunction)
+	{
+		Objects.requireNonNull(remappingFunction);
+		Node node = getOrCreateNode(key);
+		V value = applyOrPrune(node, () -> remappingFunction.apply(key, node.value));
+		if (value != null)
+		{
+			node.setElement(key, value);
+		}
+		else
+		{
+			node.remove();
+		}
+		return value;
+	}
+	
+	@Override
+	public V merge(String key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction)
+	{
+		Objects.requireNonNull(remappingFunction);
+		Objects.requireNonNull(value);
+		Node node = getOrCreateNode(key);
+		if (node.value == null)
+		{
+			node.setElement(key, value);
+			return value;
+		}
+		V newValue = remappingFunction.apply(node.value, value);
+		if (newValue != null)
+		{
+			node.value = newValue;
+		}
+		else
+		{
+			node.remove();
+		}
+		return newValue;
+	}
+	
+	/**
+	 * If {@code function} throws, {@code node} is pruned, because it could have just been created.
+	 */
+	private V applyOrPrune(Node node, Supplier<? extends V> function)
+	{
+		try
+		{
+			return function.get();
+		}
+		catch (RuntimeException | Error e)
+		{
+			if ( ! node.isElement() )
+			{
+				node.prune();
+			}
+			throw e;
+		}
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+	
+	@Override
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+	
+	@Override
+	public V remove(Object key)
+	{
+		Node node = getNode(key);
+		if (node != null)
+		{
+			V value = node.getValue();
+			node.remove();
+			return value;
+		}
+		return null;
+	}
+	@Override
+	public boolean remove(Object key, Object value)
+	{
+		Node node = getNode(key);
+		if (node != null)
+		{
+			if (Objects.equals(value, node.getValue()))
+			{
+				node.remove();
+				return true;				
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Removes all the keys starting with {@code prefix}, detaching
+	 * their whole subtree at once.
+	 * 
+	 * @param prefix
+	 * @return the count of the removed keys
+	 */
+	public int removePrefix(String prefix)
+	{
+		Node node = prefixNode(prefix);
+		if (node == null)
+		{
+			return 0;
+		}
+		if (node == root)
+		{
+			int removed = size;
+			clear();
+			return removed;
+		}
+		int removed = node.count;
+		size -= removed;
+		node.parent.addToCounts(-removed);
+		node.detach();
+		node.parent.prune();
+		flushCompaction();
+		return removed;
+	}
+	
+	/*
+	 * Every node keeps the count of the elements of its subtree, so the positional queries
+	 * below walk a single path, summing the counts of the siblings on its left:
+	 * they cost the length of the key times the width of the children's windows.
+	 * The order is the one of the iterators, i.e. of the translated chars.
+	 */
+	
+	/**
+	 * @param prefix
+	 * @return the count of the keys starting with {@code prefix}
+	 */
+	public int countWithPrefix(String prefix)
+	{
+		Node node = prefixNode(prefix);
+		return node != null ? node.count : 0;
+	}
+	
+	/**
+	 * @param key
+	 * @return the count of the keys preceding {@code key}, which is the index of {@code key}
+	 * if it is present, or the index where it would be inserted otherwise
+	 */
+	public int rank(String key)
+	{
+		CharSequence path = path(key);
+		int rank = 0;
+		Node node = root;
+		for (int depth = 0; depth < path.length() && node != null; depth++)
+		{
+			if (node.isElement())
+			{
+				rank++;
+			}
+			int index = charTranslator.applyAsChar(path.charAt(depth)) - node.offset;
+			int limit = Math.min(index, node.children.length);
+			for (int sibling = 0; sibling < limit; sibling++)
+			{
+				if (node.children[sibling] != null)
+				{
+					rank += node.children[sibling].count;
+				}
+			}
+			node = index >= 0 && index < node.children.length ? node.children[index] : null;
+		}
+		return rank;
+	}
+	
+	/**
+	 * @param index
+	 * @return the entry at position {@code index} in the order of the keys
+	 * @throws IndexOutOfBoundsException if {@code index} is negative or not less than the size
+	 */
+	public Entry<String, V> select(int index)
+	{
+		if (index < 0 || index >= size)
+		{
+			throw new IndexOutOfBoundsException(String.format("Index %d, size %d", index, size));
+		}
+		Node node = root;
+		while (true)
+		{
+			if (node.isElement())
+			{
+				if (index == 0)
+				{
+					return node;
+				}
+				index--;
+			}
+			for (Node child : node.children)
+			{
+				if (child != null)
+				{
+					if (index < child.count)
+					{
+						node = child;
+						break;
+					}
+					index -= child.count;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @param prefix
+	 * @return the node whose subtree contains the keys starting with {@code prefix}, or <code>null</code>
+	 */
+	private Node prefixNode(String prefix)
+	{
+		CharSequence path = path(prefix);
+		Node node = root;
+		for (int depth = 0; depth < path.length() && node != null; depth++)
+		{
+			node = node.child(charTranslator.applyAsChar(path.charAt(depth)));
+		}
+		return node;
+	}
+	
+	/**
+	 * Removes all the entries satisfying {@code filter} in a single post-order traversal,
+	 * so that every children's window is adjusted at most once.
+	 * 
+	 * @param filter
+	 * @return {@code true} if any entries were removed
+	 */
+	public boolean removeIf(Predicate<? super Entry<String, V>> filter)
+	{
+		Objects.requireNonNull(filter);
+		int previousSize = size;
+		compactionDeferred = true;
+		try
+		{
+			removeIf(root, filter);
+		}
+		finally
+		{
+			flushCompaction();
+		}
+		return size != previousSize;
+	}
+	
+	/**
+	 * Enables or disables the lazy compaction of the children's windows.
+	 * <p>
+	 * By default, every removal immediately trims the window of the parent
+	 * of the removed node, which means allocating a new array whenever the removed
+	 * child was at one of the window's edges. When the lazy compaction is enabled,
+	 * a removal merely clears the child's slot, and the nodes whose window
+	 * needs trimming are collected and trimmed in batches of {@code batchSize},
+	 * or when {@link #compact()} is called. This favours mass deletions, at the cost
+	 * of temporarily retaining some oversized arrays.
+	 * 
+	 * @param batchSize the count of nodes to be compacted together, zero or less 
+	 * means eager compaction, in which case any pending compaction is performed immediately
+	 */
+	public void setLazyCompaction(int batchSize)
+	{
+		compactionBatchSize = Math.max(batchSize, 0);
+		if (compactionBatchSize == 0)
+		{
+			compact();
+		}
+	}
+	
+	/**
+	 * Trims all the children's windows whose compaction has been deferred.
+	 * 
+	 * @see #setLazyCompaction(int)
+	 */
+	public void compact()
+	{
+		for (Node node : dirtyNodes)
+		{
+			node.dirty = false;
+			node.compactChildren();
+		}
+		dirtyNodes.clear();
+	}
+	
+	/**
+	 * Ends a bulk operation: drops the dirty nodes which have been detached from the trie
+	 * meanwhile, together with some ancestor, then compacts the batch if it is full.
+	 */
+	private void flushCompaction()
+	{
+		compactionDeferred = false;
+		dirtyNodes.removeIf(node -> ! node.isAttached());
+		if (compactionBatchSize > 0 && dirtyNodes.size() >= compactionBatchSize)
+		{
+			compact();
+		}
+	}
+	
+	/**
+	 * @return {@code true} if {@code node} has become empty, and so it must be pruned by the caller
+	 */
+	private boolean removeIf(Node node, Predicate<? super Entry<String, V>> filter)
+	{
+		if (node.isElement() && filter.test(node))
+		{
+			node.clearElement();
+		}
+		boolean pruned = false;
+		for (int index = 0; index < node.children.length; index++)
+		{
+			Node child = node.children[index];
+			if (child != null && removeIf(child, filter))
+			{
+				node.children[index] = null;
+				pruned = true;
+			}
+		}
+		if (pruned)
+		{
+			node.childrenRemoved();
+		}
+		return node.isEmpty();
+	}
+
+	@Override
+	public void putAll(Map<? extends String, ? extends V> m)
+	{
+		m.forEach(this::put);
+	}
+	
+	/**
+	 * Merges all the entries of {@code other} into this map, walking both tries
+	 * in lockstep: the subtrees of {@code other} which have no counterpart here
+	 * are grafted as a whole, without walking their keys again from the root.
+	 * When a key is present in both maps, the value is computed as in
+	 * {@link Map#merge(Object, Object, BiFunction)}, so a {@code null} result
+	 * removes the entry, and a key mapped to {@code null} here takes the value
+	 * of {@code other} without calling {@code remappingFunction}.
+	 * <p>
+	 * Both maps are assumed to have equivalent {@code charTranslator}s.
+	 * 
+	 * @param other the map whose entries are merged into this one, it is not modified
+	 * @param remappingFunction the function computing the value of the keys present in both maps
+	 */
+	public void mergeFrom(TrieMap<? extends V> other, BiFunction<? super V, ? super V, ? extends V> remappingFunction)
+	{
+		Objects.requireNonNull(remappingFunction);
+		depthBound = Math.max(depthBound, other.depthBound);
+		compactionDeferred = true;
+		try
+		{
+			merge(root, other.root, remappingFunction);
+		}
+		finally
+		{
+			flushCompaction();
+		}
+	}
+	
+	/**
+	 * Retains only the keys which are also contained in {@code other},
+	 * pruning in one step every subtree which has no counterpart in {@code other}.
+	 * <p>
+	 * Both maps are assumed to have equivalent {@code charTranslator}s.
+	 * 
+	 * @param other
+	 * @return {@code true} if this map changed as a result of the call
+	 */
+	public boolean retainAll(TrieMap<?> other)
+	{
+		int previousSize = size;
+		compactionDeferred = true;
+		try
+		{
+			retain(root, other.root);
+		}
+		finally
+		{
+			flushCompaction();
+		}
+		return size != previousSize;
+	}
+	
+	/**
+	 * Removes all the keys which are also contained in {@code other},
+	 * visiting only the paths the two tries have in common.
+	 * <p>
+	 * Both maps are assumed to have equivalent {@code charTranslator}s.
+	 * 
+	 * @param other
+	 * @return {@code true} if this map changed as a result of the call
+	 */
+	public boolean removeAll(TrieMap<?> other)
+	{
+		int previousSize = size;
+		compactionDeferred = true;
+		try
+		{
+			subtract(root, other.root);
+		}
+		finally
+		{
+			flushCompaction();
+		}
+		return size != previousSize;
+	}
+	
+	/**
+	 * @param other
+	 * @param remappingFunction the function computing the value of the keys present in both maps
+	 * @return a new map, with the same translators as this one, containing the keys of both maps
+	 * 
+	 * @see #mergeFrom(TrieMap, BiFunction)
+	 */
+	public TrieMap<V> union(TrieMap<? extends V> other, BiFunction<? super V, ? super V, ? extends V> remappingFunction)
+	{
+		Objects.requireNonNull(remappingFunction);
+		TrieMap<V> union = new TrieMap<>(charTranslator, codePointTranslator);
+		union.root = union.copyOf(root, null);
+		union.depthBound = Math.max(depthBound, other.depthBound);
+		union.merge(union.root, other.root, remappingFunction);
+		return union;
+	}
+	
+	/**
+	 * @param other
+	 * @param remappingFunction the function computing the value of the keys present in both maps,
+	 * a {@code null} result excludes the key
+	 * @return a new map, with the same translators as this one, containing the keys present in both maps
+	 */
+	public TrieMap<V> intersection(TrieMap<? extends V> other, BiFunction<? super V, ? super V, ? extends V> remappingFunction)
+	{
+		Objects.requireNonNull(remappingFunction);
+		TrieMap<V> intersection = new TrieMap<>(charTranslator, codePointTranslator);
+		Node intersectionRoot = intersection.intersect(root, other.root, remappingFunction, null);
+		intersection.depthBound = depthBound;
+		if (intersectionRoot != null)
+		{
+			intersection.root = intersectionRoot;
+		}
+		return intersection;
 	}
-	public TrieMap()
+	
+	/**
+	 * @param other
+	 * @return a new map, with the same translators as this one, containing the entries
+	 * of this map whose keys are not present in {@code other}
+	 */
+	public TrieMap<V> difference(TrieMap<?> other)
 	{
-		this(null);
+		TrieMap<V> difference = new TrieMap<>(charTranslator, codePointTranslator);
+		Node differenceRoot = difference.differ(root, other.root, null);
+		difference.depthBound = depthBound;
+		if (differenceRoot != null)
+		{
+			difference.root = differenceRoot;
+		}
+		return difference;
 	}
 	
-	public int findAll(CharSequence charSequence, Visitor<V> visitor)
+	/**
+	 * @return {@code true} if {@code target} has become empty, and so it must be pruned by the caller
+	 */
+	private <W extends V> boolean merge(Node target, TrieMap<W>.Node source, BiFunction<? super V, ? super W, ? extends V> remappingFunction)
 	{
-		int count = 0;
-
-		class Match
+		if (source.isElement())
 		{
-			int start, end;
-			Node node;
-			boolean found()
+			if (target.isElement() && target.value == null)
 			{
-				return node != null;
+				// Like Map.merge, a null value is absent: the key is kept, without remapping
+				target.value = source.value;
 			}
-		}
-		for (int textIndex = 0; textIndex < charSequence.length(); textIndex++)
-		{
-			Node currentNode = root;
-			Match match = new Match();
-			match.start = textIndex;
-			for (int depth = 0; (textIndex + depth) < charSequence.length() && currentNode != null; depth++)
+			else if (target.isElement())
 			{
-				int index = charTranslator.applyAsChar(charSequence.charAt(textIndex + depth)) - currentNode.offset;
-				if (index < 0 || index >= currentNode.children.length || currentNode.children[index] == null)
+				V value = remappingFunction.apply(target.value, source.value);
+				if (value != null)
 				{
-					break;
+					target.value = value;
 				}
-				currentNode = currentNode.children[index];
-				if (currentNode.key != null)
+				else
 				{
-					match.end = textIndex + depth + 1;
-					match.node = currentNode;
+					target.clearElement();
 				}
 			}
-			if (match.found())
+			else
 			{
-				visitor.matched(match.node, match.start, match.end);
-				textIndex = match.end;
-				count++;
+				target.setElement(source.key, source.value);
 			}
 		}
-		
-		return count;
-	}
-	
-	@Override
-	public V get(Object keyObj)
-	{
-		Node node = getNode(keyObj);
-		if (node != null)
+		boolean pruned = false;
+		for (int index = 0; index < source.children.length; index++)
 		{
-			return node.value;
+			TrieMap<W>.Node sourceChild = source.children[index];
+			if (sourceChild != null)
+			{
+				char c = (char) (source.offset + index);
+				Node targetChild = target.child(c);
+				if (targetChild == null)
+				{
+					int targetIndex = target.slot(c);
+					Node copy = copyOf(sourceChild, target);
+					target.children[targetIndex] = copy;
+					target.addToCounts(copy.count);
+				}
+				else if (merge(targetChild, sourceChild, remappingFunction))
+				{
+					target.children[c - target.offset] = null;
+					pruned = true;
+				}
+			}
 		}
-		return null;
+		if (pruned)
+		{
+			target.childrenRemoved();
+		}
+		return target.isEmpty();
 	}
 	
-	protected Node getNode(Object keyObj)
+	/**
+	 * @return {@code true} if {@code target} has become empty, and so it must be pruned by the caller
+	 */
+	private boolean retain(Node target, TrieMap<?>.Node other)
 	{
-		if (keyObj instanceof String)
+		if (target.isElement() && ! other.isElement())
 		{
-			String key = (String) keyObj;
-			Node currentNode = root;
-			for (int depth = 0; depth < key.length() && currentNode != null; depth++)
+			target.clearElement();
+		}
+		boolean pruned = false;
+		for (int index = 0; index < target.children.length; index++)
+		{
+			Node targetChild = target.children[index];
+			if (targetChild != null)
 			{
-				int index = charTranslator.applyAsChar(key.charAt(depth)) - currentNode.offset;
-				if (index >= 0 && index < currentNode.children.length)
+				TrieMap<?>.Node otherChild = other.child((char) (target.offset + index));
+				if (otherChild == null)
 				{
-					currentNode = currentNode.children[index];
+					size -= targetChild.count;
+					target.addToCounts(-targetChild.count);
+					target.children[index] = null;
+					pruned = true;
 				}
-				else
+				else if (retain(targetChild, otherChild))
 				{
-					currentNode = null;
+					target.children[index] = null;
+					pruned = true;
 				}
 			}
-			if (currentNode != null && currentNode.key != null)
-			{
-				assert currentNode.key.equals(key) : "Implementation error";
-				return currentNode;
-			}
 		}
-		return null;
-	}
-
-	@Override
-	public boolean containsKey(Object key)
-	{
-		return get(key) != null;
+		if (pruned)
+		{
+			target.childrenRemoved();
+		}
+		return target.isEmpty();
 	}
 	
-	@Override
-	public V put(String key, V value)
+	/**
+	 * @return {@code true} if {@code target} has become empty, and so it must be pruned by the caller
+	 */
+	private boolean subtract(Node target, TrieMap<?>.Node other)
 	{
-		if (key == null)
-		{
-			throw new IllegalArgumentException("key", new NullPointerException());
-		}
-		/*
-		if (value == null)
+		if (target.isElement() && other.isElement())
 		{
-			throw new IllegalArgumentException("value", new NullPointerException());
+			target.clearElement();
 		}
-		*/
-		
-		boolean increaseSize = false;
-		
-		Node currentNode = root;
-		for (int depth = 0; depth < key.length(); depth++)
+		boolean pruned = false;
+		for (int index = 0; index < target.children.length; index++)
 		{
-			char currentChar = charTranslator.applyAsChar(key.charAt(depth));
-			int index = currentChar - currentNode.offset;
-			if (currentNode.children.length == 0)
-			{
-				currentNode.offset = currentChar;
-				currentNode.children = newNodes(1);
-				index = 0;
-			}
-			
-			if (index < 0)
-			{
-				TrieMap<V>.Node[] newChildren = newNodes(currentNode.children.length + (currentNode.offset - currentChar));
-				System.arraycopy(currentNode.children, 0, newChildren, -index, currentNode.children.length);
-				currentNode.children = newChildren;
-				newChildren = null;
-				currentNode.offset = currentChar;
-				index = 0;
-			}
-			else if (index >= currentNode.children.length)
+			Node targetChild = target.children[index];
+			if (targetChild != null)
 			{
-				TrieMap<V>.Node[] newChildren = newNodes(index + 1);
-				System.arraycopy(currentNode.children, 0, newChildren, 0, currentNode.children.length);
-				currentNode.children = newChildren;
-				newChildren = null;				
-			}
-			
-			if (currentNode.children[index] == null)
-			{
-				currentNode.children[index] = new Node(currentNode);
-				increaseSize = true;
+				TrieMap<?>.Node otherChild = other.child((char) (target.offset + index));
+				if (otherChild != null && subtract(targetChild, otherChild))
+				{
+					target.children[index] = null;
+					pruned = true;
+				}
 			}
-			currentNode = currentNode.children[index];
 		}
-		increaseSize = increaseSize || currentNode.key == null;
-		V previous = currentNode.value;
-		currentNode.key = key;
-		currentNode.value = value;
-		
-		if (increaseSize)
+		if (pruned)
 		{
-			size++;
+			target.childrenRemoved();
 		}
-
-		return previous;
-	}
-
-	@Override
-	public int size()
-	{
-		return size;
+		return target.isEmpty();
 	}
 	
-	@Override
-	public boolean isEmpty()
+	/**
+	 * @return the root of the intersection of the two subtrees, or <code>null</code> if it is empty
+	 */
+	private <A extends V, B extends V> Node intersect(TrieMap<A>.Node left, TrieMap<B>.Node right, BiFunction<? super A, ? super B, ? extends V> remappingFunction, Node parent)
 	{
-		return size == 0;
+		Node node = new Node(parent, left.label);
+		if (left.isElement() && right.isElement())
+		{
+			V value = remappingFunction.apply(left.value, right.value);
+			if (value != null)
+			{
+				node.initElement(left.key, value);
+			}
+		}
+		node.children = newNodes(left.children.length);
+		node.offset = left.offset;
+		for (int index = 0; index < left.children.length; index++)
+		{
+			TrieMap<A>.Node leftChild = left.children[index];
+			if (leftChild != null)
+			{
+				TrieMap<B>.Node rightChild = right.child((char) (left.offset + index));
+				if (rightChild != null && (node.children[index] = intersect(leftChild, rightChild, remappingFunction, node)) != null)
+				{
+					node.count += node.children[index].count;
+				}
+			}
+		}
+		node.compactChildren();
+		return node.isEmpty() ? null : node;
 	}
 	
-	@Override
-	public V remove(Object key)
+	/**
+	 * @return the root of the difference of the two subtrees, or <code>null</code> if it is empty
+	 */
+	private <W extends V> Node differ(TrieMap<W>.Node left, TrieMap<?>.Node right, Node parent)
 	{
-		Node node = getNode(key);
-		if (node != null)
+		Node node = new Node(parent, left.label);
+		if (left.isElement() && ! right.isElement())
 		{
-			node.remove();
-			return node.getValue();
+			node.initElement(left.key, left.value);
 		}
-		return null;
-	}
-	@Override
-	public boolean remove(Object key, Object value)
-	{
-		Node node = getNode(key);
-		if (node != null)
+		node.children = newNodes(left.children.length);
+		node.offset = left.offset;
+		for (int index = 0; index < left.children.length; index++)
 		{
-			if (Objects.equals(value, node.getValue()))
+			TrieMap<W>.Node leftChild = left.children[index];
+			if (leftChild != null)
 			{
-				node.remove();
-				return true;				
+				TrieMap<?>.Node rightChild = right.child((char) (left.offset + index));
+				node.children[index] = rightChild == null ? copyOf(leftChild, node) : differ(leftChild, rightChild, node);
+				if (node.children[index] != null)
+				{
+					node.count += node.children[index].count;
+				}
 			}
 		}
-		return false;
+		node.compactChildren();
+		return node.isEmpty() ? null : node;
 	}
-
-	@Override
-	public void putAll(Map<? extends String, ? extends V> m)
+	
+	/**
+	 * Deep copy of a subtree, possibly belonging to another map, into this one;
+	 * the counts of the ancestors are not updated.
+	 */
+	private <W extends V> Node copyOf(TrieMap<W>.Node source, Node parent)
 	{
-		m.forEach(this::put);
+		Node node = new Node(parent, source.label);
+		if (source.isElement())
+		{
+			node.initElement(source.key, source.value);
+		}
+		if (source.children.length > 0)
+		{
+			node.children = newNodes(source.children.length);
+			node.offset = source.offset;
+			for (int index = 0; index < source.children.length; index++)
+			{
+				if (source.children[index] != null)
+				{
+					node.children[index] = copyOf(source.children[index], node);
+					node.count += node.children[index].count;
+				}
+			}
+		}
+		return node;
 	}
 	
 	@Override
 	public void clear()
 	{
-		root = new Node(null);
+		root = new Node(null, (char) 0);
 		size = 0;
+		depthBound = 0;
+		dirtyNodes.clear();
 	}
 	
 	@Override
@@ -278,11 +1333,91 @@ public class TrieMap<V> implements Map<String, V>
 	@Override
 	public void replaceAll(BiFunction<? super String, ? super V, ? extends V> function)
 	{
-		TrieIterator trieIterator = new TrieIterator();
-		while (trieIterator.hasNext())
+		Objects.requireNonNull(function);
+		forEachElement(root, node -> node.value = function.apply(node.key, node.value));
+	}
+	
+	/*
+	 * The internal iterations visit the elements in the order of the iterators,
+	 * without creating any iterator nor any object per element.
+	 */
+	
+	@Override
+	public void forEach(BiConsumer<? super String, ? super V> action)
+	{
+		Objects.requireNonNull(action);
+		forEachElement(root, node -> action.accept(node.key, node.value));
+	}
+	
+	/**
+	 * Performs {@code action} on the entries whose keys start with {@code prefix}, in the order of the keys.
+	 * 
+	 * @param prefix
+	 * @param action
+	 */
+	public void forEach(String prefix, BiConsumer<? super String, ? super V> action)
+	{
+		Objects.requireNonNull(action);
+		Node node = prefixNode(prefix);
+		if (node != null)
+		{
+			forEachElement(node, element -> action.accept(element.key, element.value));
+		}
+	}
+	
+	public void forEachKey(Consumer<? super String> action)
+	{
+		Objects.requireNonNull(action);
+		forEachElement(root, node -> action.accept(node.key));
+	}
+	
+	public void forEachValue(Consumer<? super V> action)
+	{
+		Objects.requireNonNull(action);
+		forEachElement(root, node -> action.accept(node.value));
+	}
+	
+	/**
+	 * Pre-order traversal of the subtree rooted at {@code start}, on a stack of arrays
+	 * holding, for every level, the node and the index of its next child to be visited.
+	 */
+	private void forEachElement(Node start, Consumer<? super Node> action)
+	{
+		Node[] nodes = newNodes(depthBound + 1);
+		int[] cursors = new int[nodes.length];
+		nodes[0] = start;
+		int top = 0;
+		if (start.isElement())
+		{
+			action.accept(start);
+		}
+		while (top >= 0)
 		{
-			Entry<String, V> entry = trieIterator.next();
-			function.apply(entry.getKey(), entry.getValue());
+			Node node = nodes[top];
+			Node[] children = node.children;
+			int index = cursors[top];
+			while (index < children.length && children[index] == null)
+			{
+				index++;
+			}
+			if (index == children.length)
+			{
+				nodes[top--] = null;
+				continue;
+			}
+			cursors[top] = index + 1;
+			Node child = children[index];
+			if (++top == nodes.length)
+			{
+				nodes = Arrays.copyOf(nodes, nodes.length * 2);
+				cursors = Arrays.copyOf(cursors, cursors.length * 2);
+			}
+			nodes[top] = child;
+			cursors[top] = 0;
+			if (child.isElement())
+			{
+				action.accept(child);
+			}
 		}
 	}
 	
@@ -354,49 +1489,218 @@ public class TrieMap<V> implements Map<String, V>
 			Node node;
 			while ((node = queue.poll()) != null)
 			{
-				for (Node child : node.children)
+				for (Node child : node.children)
+				{
+					if (child != null)
+					{
+						level.add(child);
+					}
+				}
+			}
+			queue.addAll(level);
+		}
+	}
+	
+	private String toStringChildrenAsChars(Node node)
+	{
+		List<Character> chars = new LinkedList<>();
+		for (int index = 0; index < node.children.length; index++)
+		{
+			if (node.children[index] != null)
+			{
+				chars.add((char) (node.offset + index));
+			}
+		}
+		return String.format("[%s]", chars.stream().map(c -> c.toString()).collect(Collectors.joining(",")));
+	}
+
+	@SuppressWarnings("unchecked")
+	private Node[] newNodes(int size)
+	{
+		return new TrieMap.Node[size];
+	}
+
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	private static <V> Entry<String, ? extends V>[] newEntries(int size)
+	{
+		return new Entry[size];
+	}
+
+	/**
+	 * Builds the subtree of {@code node} from a range of entries whose keys all start with the path,
+	 * {@code depth} chars long, of {@code node}, and sets the count of {@code node}.
+	 * The result is the length of the longest key.
+	 */
+	private class BuildTask extends RecursiveTask<Integer>
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private final Node node;
+		private final Entry<String, ? extends V>[] entries;
+		private final int from;
+		private final int to;
+		private final int depth;
+		private final int grain;
+		
+		BuildTask(Node node, Entry<String, ? extends V>[] entries, int from, int to, int depth, int grain)
+		{
+			this.node = node;
+			this.entries = entries;
+			this.from = from;
+			this.to = to;
+			this.depth = depth;
+			this.grain = grain;
+		}
+		
+		@Override
+		protected Integer compute()
+		{
+			return to - from <= grain ? insertAll() : split();
+		}
+		
+		/**
+		 * Inserts the entries one by one, counting the new elements on their paths
+		 */
+		private int insertAll()
+		{
+			int maximumLength = depth;
+			for (int index = from; index < to; index++)
+			{
+				String key = key(index);
+				maximumLength = Math.max(maximumLength, key.length());
+				Node currentNode = node;
+				for (int keyIndex = depth; keyIndex < key.length(); keyIndex++)
+				{
+					char currentChar = charTranslator.applyAsChar(key.charAt(keyIndex));
+					int slot = currentNode.slot(currentChar);
+					if (currentNode.children[slot] == null)
+					{
+						currentNode.children[slot] = new Node(currentNode, currentChar);
+					}
+					currentNode = currentNode.children[slot];
+				}
+				if ( ! currentNode.isElement() )
+				{
+					for (Node ancestor = currentNode; ancestor != node; ancestor = ancestor.parent)
+					{
+						ancestor.count++;
+					}
+					node.count++;
+				}
+				currentNode.key = key;
+				currentNode.value = entries[index].getValue();
+			}
+			return maximumLength;
+		}
+		
+		/**
+		 * Sorts the entries by their char at {@code depth}, stably, and forks a task for every char
+		 */
+		private int split()
+		{
+			char[] chars = new char[to - from];
+			char minimum = Character.MAX_VALUE;
+			char maximum = Character.MIN_VALUE;
+			int ending = 0;
+			for (int index = from; index < to; index++)
+			{
+				String key = key(index);
+				if (key.length() == depth)
 				{
-					if (child != null)
-					{
-						level.add(child);
-					}
+					node.key = key;
+					node.value = entries[index].getValue();
+					ending++;
+				}
+				else
+				{
+					char c = charTranslator.applyAsChar(key.charAt(depth));
+					chars[index - from] = c;
+					minimum = (char) Math.min(minimum, c);
+					maximum = (char) Math.max(maximum, c);
 				}
 			}
-			queue.addAll(level);
+			node.count = node.isElement() ? 1 : 0;
+			if (ending == to - from)
+			{
+				return depth;
+			}
+			int[] starts = new int[maximum - minimum + 2];
+			for (int index = from; index < to; index++)
+			{
+				if (entries[index].getKey().length() > depth)
+				{
+					starts[chars[index - from] - minimum + 1]++;
+				}
+			}
+			for (int index = 1; index < starts.length; index++)
+			{
+				starts[index] += starts[index - 1];
+			}
+			Entry<String, ? extends V>[] sorted = newEntries(to - from - ending);
+			int[] positions = Arrays.copyOf(starts, starts.length - 1);
+			for (int index = from; index < to; index++)
+			{
+				if (entries[index].getKey().length() > depth)
+				{
+					sorted[positions[chars[index - from] - minimum]++] = entries[index];
+				}
+			}
+			System.arraycopy(sorted, 0, entries, from, sorted.length);
+			
+			node.offset = minimum;
+			node.children = newNodes(maximum - minimum + 1);
+			List<BuildTask> tasks = new ArrayList<>();
+			for (int index = 0; index < node.children.length; index++)
+			{
+				if (starts[index + 1] > starts[index])
+				{
+					node.children[index] = new Node(node, (char) (minimum + index));
+					tasks.add(new BuildTask(node.children[index], entries, from + starts[index], from + starts[index + 1], depth + 1, grain));
+				}
+			}
+			int maximumLength = depth;
+			for (BuildTask task : invokeAll(tasks))
+			{
+				maximumLength = Math.max(maximumLength, task.join());
+				node.count += task.node.count;
+			}
+			return maximumLength;
 		}
-	}
-	
-	private String toStringChildrenAsChars(Node node)
-	{
-		List<Character> chars = new LinkedList<>();
-		for (int index = 0; index < node.children.length; index++)
+		
+		private String key(int index)
 		{
-			if (node.children[index] != null)
+			String key = entries[index].getKey();
+			if (key == null)
 			{
-				chars.add((char) (node.offset + index));
+				throw new IllegalArgumentException("key", new NullPointerException());
 			}
+			return key;
 		}
-		return String.format("[%s]", chars.stream().map(c -> c.toString()).collect(Collectors.joining(",")));
-	}
-
-	@SuppressWarnings("unchecked")
-	private Node[] newNodes(int size)
-	{
-		return new TrieMap.Node[size];
 	}
-
+	
 	class Node implements Entry<String, V>
 	{
 		private final Node parent;
+		private final char label;
 		private Node[] children = EMPTY;
 		private char offset = 0;
+		private boolean dirty = false;
 		private String key;
 		private V value;
+		/**
+		 * The count of the elements in the subtree rooted at this node
+		 */
+		private int count = 0;
 
-		public Node(TrieMap<V>.Node parent)
+		/**
+		 * @param parent
+		 * @param label the (translated) char labelling the edge from {@code parent} to this node
+		 */
+		public Node(TrieMap<V>.Node parent, char label)
 		{
 			super();
 			this.parent = parent;
+			this.label = label;
 		}
 
 		private boolean isElement()
@@ -404,73 +1708,229 @@ public class TrieMap<V> implements Map<String, V>
 			return key != null;
 		}
 		
-		private void remove()
+		/**
+		 * @return {@code true} if this node is neither an element nor has any children
+		 */
+		private boolean isEmpty()
+		{
+			return key == null && ! hasChildren();
+		}
+		
+		/**
+		 * When the compaction is eager the window's edges are never <code>null</code>,
+		 * so this check costs at most one iteration.
+		 */
+		private boolean hasChildren()
+		{
+			for (Node child : children)
+			{
+				if (child != null)
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		private void setElement(String key, V value)
+		{
+			if ( ! isElement() )
+			{
+				size++;
+				addToCounts(1);
+			}
+			this.key = key;
+			this.value = value;
+		}
+		
+		/**
+		 * Like {@link #setElement(String, Object)} on a node which is not yet an element,
+		 * for the subtrees built bottom-up, whose ancestors' counts are updated by the caller.
+		 */
+		private void initElement(String key, V value)
+		{
+			size++;
+			count++;
+			this.key = key;
+			this.value = value;
+		}
+		
+		private void clearElement()
 		{
 			if (isElement())
 			{
 				key = null;
 				value = null;
 				size--;
+				addToCounts(-1);
+			}
+		}
+		
+		/**
+		 * Adds {@code delta} to the count of this node and of all its ancestors
+		 */
+		private void addToCounts(int delta)
+		{
+			for (Node node = this; node != null; node = node.parent)
+			{
+				node.count += delta;
 			}
-			if (children == EMPTY) // If not, there is a valid subtree, so we can stop here 
+		}
+		
+		/**
+		 * @param c an already translated char
+		 * @return the child labelled with {@code c}, or <code>null</code>
+		 */
+		private Node child(char c)
+		{
+			int index = c - offset;
+			if (index >= 0 && index < children.length)
 			{
-				Node current = this;
-				while (current.parent != null && current.removeAsChildAndAdjustAndCountRemainingSiblings() == 0)
-				{
-					current = current.parent;
-				}
+				return children[index];
 			}
+			return null;
 		}
 		
 		/**
-		 * Search {@code this} node through siblings, set it to <code>null</code>,
-		 * adjust the remaining siblings' array, setting it to {@link TrieMap#EMPTY}
-		 * if there are no other siblings, and return the count of nonnull remaining siblings.
+		 * Widens, if needed, the children's window in order to make room for {@code c}.
 		 * 
-		 * @param parent
-		 * @param child
-		 * @return
+		 * @param c an already translated char
+		 * @return the index of {@code c} inside {@link #children}
 		 */
-		private int removeAsChildAndAdjustAndCountRemainingSiblings()
+		private int slot(char c)
 		{
-			int count = 0; 
-			char left = (char) -1, right = (char) -1;
-			
-			for (char i = 0; i < parent.children.length; i++)
+			int index = c - offset;
+			if (children.length == 0)
 			{
-				if (parent.children[i] != null)
-				{
-					if (parent.children[i] == this)
-					{
-						parent.children[i] = null;
-					}
-					else
-					{
-						if (left == -1)
-						{
-							left = i;
-						}
-						right = i;
-						count++;
-					}
-				}
+				offset = c;
+				children = newNodes(1);
+				index = 0;
 			}
-			
-			if (count > 0)
+			else if (index < 0)
+			{
+				Node[] newChildren = newNodes(children.length + (offset - c));
+				System.arraycopy(children, 0, newChildren, -index, children.length);
+				children = newChildren;
+				offset = c;
+				index = 0;
+			}
+			else if (index >= children.length)
+			{
+				Node[] newChildren = newNodes(index + 1);
+				System.arraycopy(children, 0, newChildren, 0, children.length);
+				children = newChildren;
+			}
+			else
+			{
+				return index;
+			}
+			if (listener != null)
+			{
+				listener.childrenResized(children.length);
+			}
+			return index;
+		}
+		
+		/**
+		 * Shrinks the children's window to the nonnull children, 
+		 * setting it to {@link TrieMap#EMPTY} if there are none.
+		 */
+		private void compactChildren()
+		{
+			int left = 0, right = children.length - 1;
+			while (left <= right && children[left] == null)
+			{
+				left++;
+			}
+			while (right >= left && children[right] == null)
+			{
+				right--;
+			}
+			if (left > right)
+			{
+				children = EMPTY;
+				offset = 0;
+			}
+			else if (left > 0 || right < children.length - 1)
 			{
 				int newLength = ( right - left ) + 1 ;
 				Node[] newChildren = newNodes(newLength);
-				System.arraycopy(parent.children, left, newChildren, 0, newLength);
-				parent.children = newChildren;
-				parent.offset = left;
+				System.arraycopy(children, left, newChildren, 0, newLength);
+				children = newChildren;
+				offset += left;
 			}
-			else
+		}
+		
+		private void remove()
+		{
+			clearElement();
+			prune();
+		}
+		
+		/**
+		 * Detaches this node and its ancestors as long as they are empty.
+		 */
+		private void prune()
+		{
+			Node current = this;
+			// If not empty, there is a valid subtree, so we can stop here 
+			while (current.parent != null && current.isEmpty())
 			{
-				parent.children = EMPTY;
-				parent.offset = 0;
+				current.detach();
+				current = current.parent;
+			}
+		}
+		
+		/**
+		 * Clears the slot of this node in its parent's children, 
+		 * then compacts the parent's window, or defers its compaction.
+		 */
+		private void detach()
+		{
+			parent.children[label - parent.offset] = null;
+			if (dirty)
+			{
+				dirty = false;
+				dirtyNodes.removeIf(node -> node == this);
+			}
+			parent.childrenRemoved();
+		}
+		
+		/**
+		 * @return {@code true} if this node can be reached from the root
+		 */
+		private boolean isAttached()
+		{
+			Node node = this;
+			while (node.parent != null)
+			{
+				if (node.parent.child(node.label) != node)
+				{
+					return false;
+				}
+				node = node.parent;
+			}
+			return node == root;
+		}
+		
+		/**
+		 * To be called after some slots of {@link #children} have been cleared.
+		 */
+		private void childrenRemoved()
+		{
+			if (compactionBatchSize == 0)
+			{
+				compactChildren();
+			}
+			else if ( ! dirty )
+			{
+				dirty = true;
+				dirtyNodes.add(this);
+				if ( ! compactionDeferred && dirtyNodes.size() >= compactionBatchSize )
+				{
+					compact();
+				}
 			}
-			
-			return count;
 		}
 		
 		@Override
@@ -516,6 +1976,25 @@ public class TrieMap<V> implements Map<String, V>
 		}
 	}
 		
+	/**
+	 * A reusable holder of the result of {@link TrieMap#longestMatch(CharSequence, int, int, Match)},
+	 * and of the buffer its code points are translated into
+	 */
+	final class Match
+	{
+		int start, end;
+		Node node;
+		/**
+		 * The count of the edges followed by the walk
+		 */
+		int depth;
+		final int[] translated = codePointTranslator != null ? new int[CodePointTranslator.MAX_EXPANSION] : null;
+		boolean found()
+		{
+			return node != null;
+		}
+	}
+	
 	@FunctionalInterface
 	public interface Visitor<V>
 	{
@@ -545,43 +2024,63 @@ public class TrieMap<V> implements Map<String, V>
 		}
 	}
 	
+	/**
+	 * A pre-order traversal on a stack of arrays, like {@link TrieMap#forEachElement(Node, Consumer)};
+	 * the next child of every level is recorded by its label rather than by its index,
+	 * because {@link #remove()} can compact the windows of the nodes on the stack.
+	 */
 	class TrieIterator implements Spliterator<Map.Entry<String, V>>, Iterator<Map.Entry<String, V>>
 	{
-		// pre-order traversal
-		Stack<Node> stack = new Stack<>();
+		private Node[] nodes = newNodes(depthBound + 1);
+		private int[] nextLabels = new int[nodes.length];
+		private int top = 0;
 		private Node next = null, savedNext = null;
 		TrieIterator()
 		{
-			stack.push(root);
+			nodes[0] = root;
+			if (root.isElement())
+			{
+				next = root;
+			}
 		}
 		
 		@Override
 		public boolean hasNext()
 		{
-			while ( this.next == null && ! stack.isEmpty() )
+			while (next == null && top >= 0)
 			{
-				Node current = stack.pop();
-				if (current.isElement())
+				Node node = nodes[top];
+				int index = Math.max(nextLabels[top] - node.offset, 0);
+				while (index < node.children.length && node.children[index] == null)
 				{
-					this.next = current;
+					index++;
 				}
-				for (int index = current.children.length - 1; index >= 0; index--)
+				if (index >= node.children.length)
 				{
-					Node child = current.children[index];
-					if (child != null)
-					{
-						stack.push(child);
-					}
+					nodes[top--] = null;
+					continue;
+				}
+				nextLabels[top] = node.offset + index + 1;
+				Node child = node.children[index];
+				if (++top == nodes.length)
+				{
+					nodes = Arrays.copyOf(nodes, nodes.length * 2);
+					nextLabels = Arrays.copyOf(nextLabels, nextLabels.length * 2);
+				}
+				nodes[top] = child;
+				nextLabels[top] = 0;
+				if (child.isElement())
+				{
+					next = child;
 				}
 			}
-
-			return this.next != null;
+			return next != null;
 		}
 
 		@Override
 		public Entry<String, V> next()
 		{
-			if (next != null)
+			if (hasNext())
 			{
 				savedNext = next;
 				next = null;
@@ -598,8 +2097,9 @@ public class TrieMap<V> implements Map<String, V>
 				if (savedNext.isElement())
 				{
 					savedNext.remove();
-					savedNext = null;
 				}
+				savedNext = null;
+				return;
 			}
 			throw new IllegalStateException("The next method has not yet been called, or the remove method has already been called after the last call to the next method");
 		}
@@ -661,6 +2161,102 @@ public class TrieMap<V> implements Map<String, V>
 
 	}
 	
+	/**
+	 * A pre-order traversal which advances the states of a {@link TriePattern} 
+	 * along the edges, keeping a stack of frames which are reused, 
+	 * so that no allocation is needed once the maximum depth has been reached.
+	 */
+	class PatternIterator implements Iterator<Map.Entry<String, V>>
+	{
+		private final TriePattern pattern;
+		private Node[] nodes = newNodes(16);
+		private long[][] states = new long[16][];
+		private int[] cursors = new int[16];
+		private int[] limits = new int[16];
+		private int top = -1;
+		private Node next = null;
+		
+		PatternIterator(TriePattern pattern)
+		{
+			this.pattern = pattern;
+			states[0] = new long[pattern.words];
+			pattern.initialState(states[0]);
+			push(root);
+		}
+		
+		/**
+		 * Pushes {@code node}, whose state has already been computed into {@code states[top + 1]}
+		 */
+		private void push(Node node)
+		{
+			top++;
+			long[] state = states[top];
+			nodes[top] = node;
+			int literal = pattern.singleLiteral(state, charTranslator);
+			if (literal >= 0)
+			{
+				int index = literal - node.offset;
+				boolean present = index >= 0 && index < node.children.length; 
+				cursors[top] = present ? index : 0;
+				limits[top] = present ? index + 1 : 0;
+			}
+			else
+			{
+				cursors[top] = 0;
+				limits[top] = literal == -1 ? 0 : node.children.length;
+			}
+			if (node.isElement() && pattern.accepts(state))
+			{
+				next = node;
+			}
+		}
+		
+		@Override
+		public boolean hasNext()
+		{
+			while (next == null && top >= 0)
+			{
+				if (cursors[top] >= limits[top])
+				{
+					nodes[top--] = null;
+					continue;
+				}
+				Node child = nodes[top].children[cursors[top]++];
+				if (child != null)
+				{
+					if (top + 1 == nodes.length)
+					{
+						nodes = Arrays.copyOf(nodes, nodes.length * 2);
+						states = Arrays.copyOf(states, states.length * 2);
+						cursors = Arrays.copyOf(cursors, cursors.length * 2);
+						limits = Arrays.copyOf(limits, limits.length * 2);
+					}
+					if (states[top + 1] == null)
+					{
+						states[top + 1] = new long[pattern.words];
+					}
+					if (pattern.step(states[top], child.label, states[top + 1], charTranslator))
+					{
+						push(child);
+					}
+				}
+			}
+			return next != null;
+		}
+		
+		@Override
+		public Entry<String, V> next()
+		{
+			if (hasNext())
+			{
+				Node node = next;
+				next = null;
+				return node;
+			}
+			throw new NoSuchElementException("The iteration has no more elements");
+		}
+	}
+	
 	class EntrySet extends AbstractSet<Entry<String, V>>
 	{
 		@Override
@@ -674,6 +2270,13 @@ public class TrieMap<V> implements Map<String, V>
 		{
 			return new TrieIterator();
 		}
+		
+		@Override
+		public void forEach(Consumer<? super Entry<String, V>> action)
+		{
+			Objects.requireNonNull(action);
+			forEachElement(root, action);
+		}
 
 		@Override
 		public boolean remove(Object o)
@@ -687,6 +2290,12 @@ public class TrieMap<V> implements Map<String, V>
 			return false;
 		}
 		
+		@Override
+		public boolean removeIf(Predicate<? super Entry<String, V>> filter)
+		{
+			return TrieMap.this.removeIf(filter);
+		}
+		
 	}
 	
 	class KeySet extends AbstractSet<String>
@@ -702,6 +2311,19 @@ public class TrieMap<V> implements Map<String, V>
 		{
 			return IteratorUtils.map(new TrieIterator(), Entry::getKey);
 		}
+		
+		@Override
+		public void forEach(Consumer<? super String> action)
+		{
+			forEachKey(action);
+		}
+		
+		@Override
+		public boolean removeIf(Predicate<? super String> filter)
+		{
+			Objects.requireNonNull(filter);
+			return TrieMap.this.removeIf(entry -> filter.test(entry.getKey()));
+		}
 
 		@Override
 		public boolean remove(Object o)
@@ -729,6 +2351,19 @@ public class TrieMap<V> implements Map<String, V>
 		{
 			return IteratorUtils.map(new TrieIterator(), Entry::getValue);
 		}
+		
+		@Override
+		public void forEach(Consumer<? super V> action)
+		{
+			forEachValue(action);
+		}
+		
+		@Override
+		public boolean removeIf(Predicate<? super V> filter)
+		{
+			Objects.requireNonNull(filter);
+			return TrieMap.this.removeIf(entry -> filter.test(entry.getValue()));
+		}
 
 		@Override
 		public boolean remove(Object o)
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+/**
+ * Receives the events of an instrumented {@link TrieMap}, see {@link TrieMap#setListener(TrieMapListener)}.
+ * The methods are called synchronously by the thread performing the operation,
+ * possibly by many threads at once, so they must be fast and thread safe.
+ * All of them do nothing by default.
+ *
+ * @author Giulio Quaresima (giulio.quaresima--at--gmail.com)
+ */
+public interface TrieMapListener
+{
+	/**
+	 * A key has been looked up, by {@code get}, {@code containsKey}, {@code remove} and the like.
+	 * 
+	 * @param hit {@code true} if the key was found
+	 * @param depth the count of the edges followed from the root
+	 */
+	default void lookedUp(boolean hit, int depth)
+	{
+	}
+	
+	/**
+	 * A text has been scanned by {@link TrieMap#findAll(CharSequence, TrieMap.Visitor)}.
+	 * 
+	 * @param length the length of the text
+	 * @param matches the count of the matches
+	 * @param nanos the time elapsed, visitor included
+	 */
+	default void scanned(int length, int matches, long nanos)
+	{
+	}
+	
+	/**
+	 * The children's window of a node has been allocated or widened while adding a key.
+	 * 
+	 * @param length the new length of the window
+	 */
+	default void childrenResized(int length)
+	{
+	}
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Matches many documents against a shared, read-only, dictionary concurrently:
+ * the documents are pulled from an {@link Iterator} or a {@link Stream} only as fast
+ * as the results are consumed, keeping at most {@code maxInFlight} documents
+ * submitted to the {@link Executor} and not yet delivered, and the results
+ * are delivered either in the order of the documents or as soon as they are ready.
+ * <p>
+ * Every document is matched by a single task, which collects the matches straight
+ * into its {@link Result}, without any other allocation.
+ * The dictionary must not be modified while a matching is in progress.
+ *
+ * @author Giulio Quaresima (giulio.quaresima--at--gmail.com)
+ */
+public class TrieMatcher<V>
+{
+	private final MatchingEngine<V> engine;
+	private final Executor executor;
+	private final int maxInFlight;
+
+	/**
+	 * @param engine the dictionary, for instance a {@link TrieMap} or the engine chosen by {@link MatchingEngine#of(TrieMap)}
+	 * @param executor
+	 * @param maxInFlight the maximum count of documents submitted and not yet delivered
+	 */
+	public TrieMatcher(MatchingEngine<V> engine, Executor executor, int maxInFlight)
+	{
+		if (maxInFlight < 1)
+		{
+			throw new IllegalArgumentException("maxInFlight must be positive");
+		}
+		this.engine = Objects.requireNonNull(engine);
+		this.executor = Objects.requireNonNull(executor);
+		this.maxInFlight = maxInFlight;
+	}
+	/**
+	 * A matcher running on the {@link #defaultExecutor()}, with four documents in flight per processor.
+	 */
+	public TrieMatcher(MatchingEngine<V> engine)
+	{
+		this(engine, defaultExecutor(), 4 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @return on Java 21 or later, an executor starting a virtual thread per task;
+	 * on the previous versions, the {@link ForkJoinPool#commonPool() common pool}
+	 */
+	public static Executor defaultExecutor()
+	{
+		return DefaultExecutor.INSTANCE;
+	}
+
+	/**
+	 * @param documents
+	 * @param ordered if {@code true} the results are delivered in the order of the documents,
+	 * otherwise as soon as they are ready
+	 * @return a lazy iterator over the results, which throws the exceptions thrown while matching,
+	 * or the {@link RejectedExecutionException} of a document the executor did not accept,
+	 * wrapped in a {@link CompletionException}
+	 */
+	public Iterator<Result<V>> match(Iterator<? extends CharSequence> documents, boolean ordered)
+	{
+		return new ResultIterator(Objects.requireNonNull(documents), ordered);
+	}
+
+	/**
+	 * @param documents
+	 * @param ordered
+	 * @return a lazy stream of the results, closing it closes {@code documents}
+	 *
+	 * @see #match(Iterator, boolean)
+	 */
+	public Stream<Result<V>> match(Stream<? extends CharSequence> documents, boolean ordered)
+	{
+		int characteristics = Spliterator.NONNULL | (ordered ? Spliterator.ORDERED : 0);
+		Spliterator<Result<V>> spliterator = Spliterators.spliteratorUnknownSize(match(documents.iterator(), ordered), characteristics);
+		return StreamSupport.stream(spliterator, false).onClose(documents::close);
+	}
+
+	/**
+	 * The matches of a document: the {@code i}-th match is the occurrence of
+	 * {@link #entry(int) entry(i)} from {@link #start(int) start(i)} to {@link #end(int) end(i)}.
+	 */
+	public static final class Result<V> implements TrieMap.Visitor<V>
+	{
+		private static final int[] EMPTY = new int[0];
+
+		private final long index;
+		private final CharSequence document;
+		private int size = 0;
+		private int[] bounds = EMPTY;
+		private Object[] entries;
+
+		Result(long index, CharSequence document)
+		{
+			this.index = index;
+			this.document = document;
+		}
+
+		/**
+		 * @return the position of the document in the input, starting from zero
+		 */
+		public long index()
+		{
+			return index;
+		}
+
+		public CharSequence document()
+		{
+			return document;
+		}
+
+		/**
+		 * @return the count of the matches
+		 */
+		public int size()
+		{
+			return size;
+		}
+
+		@SuppressWarnings("unchecked")
+		public Map.Entry<String, V> entry(int match)
+		{
+			checkIndex(match);
+			return (Map.Entry<String, V>) entries[match];
+		}
+
+		public int start(int match)
+		{
+			checkIndex(match);
+			return bounds[2 * match];
+		}
+
+		public int end(int match)
+		{
+			checkIndex(match);
+			return bounds[2 * match + 1];
+		}
+
+		@Override
+		public void matched(Map.Entry<String, V> entry, int start, int end)
+		{
+			if (2 * size == bounds.length)
+			{
+				int capacity = Math.max(4, size * 2);
+				bounds = Arrays.copyOf(bounds, 2 * capacity);
+				entries = entries == null ? new Object[capacity] : Arrays.copyOf(entries, capacity);
+			}
+			bounds[2 * size] = start;
+			bounds[2 * size + 1] = end;
+			entries[size] = entry;
+			size++;
+		}
+
+		private void checkIndex(int match)
+		{
+			if (match < 0 || match >= size)
+			{
+				throw new IndexOutOfBoundsException(String.format("Match %d of %d", match, size));
+			}
+		}
+
+		@Override
+		public String toString()
+		{
+			StringBuilder string = new StringBuilder().append(index).append(':');
+			for (int match = 0; match < size; match++)
+			{
+				string.append(' ').append(document, start(match), end(match));
+			}
+			return string.toString();
+		}
+	}
+
+	private class ResultIterator implements Iterator<Result<V>>
+	{
+		private final Iterator<? extends CharSequence> documents;
+		private final boolean ordered;
+		private final Queue<Task> submittedTasks = new ArrayDeque<>();
+		private final BlockingQueue<Task> completedTasks = new LinkedBlockingQueue<>();
+		private long submitted = 0;
+		private long delivered = 0;
+
+		ResultIterator(Iterator<? extends CharSequence> documents, boolean ordered)
+		{
+			this.documents = documents;
+			this.ordered = ordered;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			while (submitted - delivered < maxInFlight && documents.hasNext())
+			{
+				Task task = new Task(new Result<>(submitted, documents.next()), ordered ? null : completedTasks);
+				try
+				{
+					executor.execute(task);
+				}
+				catch (RejectedExecutionException e)
+				{
+					// The document is delivered as a failure, instead of being waited for forever
+					task.reject(e);
+				}
+				submitted++;
+				if (ordered)
+				{
+					submittedTasks.add(task);
+				}
+			}
+			return submitted > delivered;
+		}
+
+		@Override
+		public Result<V> next()
+		{
+			if ( ! hasNext() )
+			{
+				throw new NoSuchElementException("The iteration has no more elements");
+			}
+			try
+			{
+				Task task = ordered ? submittedTasks.remove() : completedTasks.take();
+				delivered++;
+				return task.get();
+			}
+			catch (ExecutionException e)
+			{
+				throw new CompletionException(e.getCause());
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new CompletionException(e);
+			}
+		}
+	}
+
+	private class Task extends FutureTask<Result<V>>
+	{
+		private final Queue<Task> completedTasks;
+
+		Task(Result<V> result, Queue<Task> completedTasks)
+		{
+			super(() -> {
+				engine.findAll(result.document, result);
+				return result;
+			});
+			this.completedTasks = completedTasks;
+		}
+
+		void reject(RejectedExecutionException exception)
+		{
+			setException(exception);
+		}
+
+		@Override
+		protected void done()
+		{
+			if (completedTasks != null)
+			{
+				completedTasks.add(this);
+			}
+		}
+	}
+
+	/**
+	 * Looked up reflectively, so that the virtual threads are used when available
+	 * without requiring Java 21 at compile time.
+	 */
+	private static final class DefaultExecutor
+	{
+		static final Executor INSTANCE = create();
+
+		private static Executor create()
+		{
+			try
+			{
+				return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			}
+			catch (ReflectiveOperationException | RuntimeException e)
+			{
+				return ForkJoinPool.commonPool();
+			}
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link TrieMapListener} collecting the operation counts of one or more maps
+ * into {@link LongAdder}s, which are striped, so that many threads can record
+ * at once without contending on the same counter.
+ * <p>
+ * The histograms have logarithmic buckets: the bucket {@code 0} counts the zeros,
+ * the bucket {@code i > 0} the values from {@code 2^(i-1)} to {@code 2^i - 1}.
+ * The snapshots are not atomic with respect to the concurrent updates.
+ *
+ * @author Giulio Quaresima (giulio.quaresima--at--gmail.com)
+ */
+public class TrieMetrics implements TrieMapListener
+{
+	private static final int BUCKETS = 33;
+
+	private final LongAdder lookups = new LongAdder();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder[] depths = newHistogram();
+	private final LongAdder scans = new LongAdder();
+	private final LongAdder scannedChars = new LongAdder();
+	private final LongAdder scanNanos = new LongAdder();
+	private final LongAdder matches = new LongAdder();
+	private final LongAdder[] matchesPerScan = newHistogram();
+	private final LongAdder childrenResizes = new LongAdder();
+
+	@Override
+	public void lookedUp(boolean hit, int depth)
+	{
+		lookups.increment();
+		if (hit)
+		{
+			hits.increment();
+		}
+		depths[bucket(depth)].increment();
+	}
+
+	@Override
+	public void scanned(int length, int matches, long nanos)
+	{
+		scans.increment();
+		scannedChars.add(length);
+		scanNanos.add(nanos);
+		this.matches.add(matches);
+		matchesPerScan[bucket(matches)].increment();
+	}
+
+	@Override
+	public void childrenResized(int length)
+	{
+		childrenResizes.increment();
+	}
+
+	public long lookupCount()
+	{
+		return lookups.sum();
+	}
+
+	public long hitCount()
+	{
+		return hits.sum();
+	}
+
+	public long missCount()
+	{
+		return lookupCount() - hitCount();
+	}
+
+	/**
+	 * @return the ratio of the lookups which found their key, or {@code NaN} if there were none
+	 */
+	public double hitRatio()
+	{
+		long lookupCount = lookupCount();
+		return lookupCount == 0 ? Double.NaN : (double) hitCount() / lookupCount;
+	}
+
+	/**
+	 * @return the histogram of the count of edges followed by the lookups
+	 */
+	public long[] depthHistogram()
+	{
+		return snapshot(depths);
+	}
+
+	/**
+	 * @return the count of the texts scanned by {@code findAll}
+	 */
+	public long scanCount()
+	{
+		return scans.sum();
+	}
+
+	public long scannedChars()
+	{
+		return scannedChars.sum();
+	}
+
+	public long scanNanos()
+	{
+		return scanNanos.sum();
+	}
+
+	/**
+	 * @return the average scanning time of 1024 chars, or {@code NaN} if no chars have been scanned
+	 */
+	public double nanosPerKilochar()
+	{
+		long chars = scannedChars();
+		return chars == 0 ? Double.NaN : scanNanos() * 1024.0 / chars;
+	}
+
+	public long matchCount()
+	{
+		return matches.sum();
+	}
+
+	/**
+	 * @return the histogram of the count of matches found by every scan
+	 */
+	public long[] matchHistogram()
+	{
+		return snapshot(matchesPerScan);
+	}
+
+	/**
+	 * @return how many times a children's window has been allocated or widened
+	 */
+	public long childrenResizeCount()
+	{
+		return childrenResizes.sum();
+	}
+
+	public void reset()
+	{
+		for (LongAdder adder : new LongAdder[] { lookups, hits, scans, scannedChars, scanNanos, matches, childrenResizes })
+		{
+			adder.reset();
+		}
+		for (int bucket = 0; bucket < BUCKETS; bucket++)
+		{
+			depths[bucket].reset();
+			matchesPerScan[bucket].reset();
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("TrieMetrics [lookups=%d, hitRatio=%.3f, scans=%d, scannedChars=%d, nanosPerKilochar=%.1f, matches=%d, childrenResizes=%d]",
+				lookupCount(), hitRatio(), scanCount(), scannedChars(), nanosPerKilochar(), matchCount(), childrenResizeCount());
+	}
+
+	/**
+	 * @param value a nonnegative value
+	 * @return the bucket of {@code value}
+	 */
+	static int bucket(int value)
+	{
+		return 32 - Integer.numberOfLeadingZeros(value);
+	}
+
+	private static LongAdder[] newHistogram()
+	{
+		LongAdder[] histogram = new LongAdder[BUCKETS];
+		for (int bucket = 0; bucket < BUCKETS; bucket++)
+		{
+			histogram[bucket] = new LongAdder();
+		}
+		return histogram;
+	}
+
+	private static long[] snapshot(LongAdder[] histogram)
+	{
+		long[] snapshot = new long[histogram.length];
+		for (int bucket = 0; bucket < histogram.length; bucket++)
+		{
+			snapshot[bucket] = histogram[bucket].sum();
+		}
+		return snapshot;
+	}
+}
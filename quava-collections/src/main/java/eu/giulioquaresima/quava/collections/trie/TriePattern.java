@@ -0,0 +1,361 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import eu.giulioquaresima.quava.functions.CharPredicate;
+import eu.giulioquaresima.quava.functions.CharUnaryOperator;
+
+/**
+ * An immutable wildcard pattern over the keys of a {@link TrieMap}, made of a sequence of:
+ * <ul>
+ * <li>literal chars, which are translated by the {@code charTranslator} of the map;</li>
+ * <li>single char wildcards, written {@code ?};</li>
+ * <li>sequence wildcards, matching zero or more chars, written {@code *};</li>
+ * <li>char classes, i.e. {@link CharPredicate}s, written like {@code [a-fx]} or {@code [^0-9]};
+ * note that the predicates are tested against the chars as translated by the map.</li>
+ * </ul>
+ * The pattern is matched against the whole key, by {@link TrieMap#match(TriePattern)}.
+ *
+ * @author Giulio Quaresima (giulio.quaresima--at--gmail.com)
+ */
+public final class TriePattern
+{
+	static final byte LITERAL = 0;
+	static final byte ANY = 1;
+	static final byte ANY_SEQUENCE = 2;
+	static final byte CLASS = 3;
+
+	private static final TriePattern EMPTY = new TriePattern(new byte[0], new char[0], new CharPredicate[0]);
+
+	private final byte[] kinds;
+	private final char[] chars;
+	private final CharPredicate[] predicates;
+	/**
+	 * The count of {@code long}s of the states' bit sets: the bit {@code i} of a state
+	 * means that the element {@code i} is the next to be matched, the bit {@code kinds.length}
+	 * means that the whole pattern has been matched.
+	 */
+	final int words;
+
+	private TriePattern(byte[] kinds, char[] chars, CharPredicate[] predicates)
+	{
+		this.kinds = kinds;
+		this.chars = chars;
+		this.predicates = predicates;
+		this.words = (kinds.length >> 6) + 1;
+	}
+
+	/**
+	 * @return the pattern matching only the empty key, to be extended by the {@code then...} methods
+	 */
+	public static TriePattern empty()
+	{
+		return EMPTY;
+	}
+
+	/**
+	 * @param pattern see the class documentation; the special chars can be escaped by {@code \}
+	 * @return
+	 * @throws IllegalArgumentException if a char class is not closed
+	 */
+	public static TriePattern compile(String pattern)
+	{
+		TriePattern triePattern = EMPTY;
+		for (int index = 0; index < pattern.length(); index++)
+		{
+			char c = pattern.charAt(index);
+			switch (c)
+			{
+			case '?':
+				triePattern = triePattern.thenAny();
+				break;
+			case '*':
+				triePattern = triePattern.thenAnySequence();
+				break;
+			case '[':
+				int end = classEnd(pattern, index + 1);
+				triePattern = triePattern.thenMatching(charClass(pattern, index + 1, end));
+				index = end;
+				break;
+			case '\\':
+				if (index + 1 < pattern.length())
+				{
+					c = pattern.charAt(++index);
+				}
+				// fall through
+			default:
+				triePattern = triePattern.then(c);
+			}
+		}
+		return triePattern;
+	}
+
+	public TriePattern then(char literal)
+	{
+		return append(LITERAL, literal, null);
+	}
+
+	public TriePattern then(CharSequence literal)
+	{
+		TriePattern triePattern = this;
+		for (int index = 0; index < literal.length(); index++)
+		{
+			triePattern = triePattern.then(literal.charAt(index));
+		}
+		return triePattern;
+	}
+
+	/**
+	 * @return this pattern followed by a single char wildcard
+	 */
+	public TriePattern thenAny()
+	{
+		return append(ANY, (char) 0, null);
+	}
+
+	/**
+	 * @return this pattern followed by a wildcard matching zero or more chars
+	 */
+	public TriePattern thenAnySequence()
+	{
+		if (kinds.length > 0 && kinds[kinds.length - 1] == ANY_SEQUENCE)
+		{
+			return this;
+		}
+		return append(ANY_SEQUENCE, (char) 0, null);
+	}
+
+	/**
+	 * @return this pattern followed by a char class
+	 */
+	public TriePattern thenMatching(CharPredicate charClass)
+	{
+		return append(CLASS, (char) 0, Objects.requireNonNull(charClass));
+	}
+
+	/**
+	 * @return the count of the elements of the pattern
+	 */
+	public int length()
+	{
+		return kinds.length;
+	}
+
+	private TriePattern append(byte kind, char c, CharPredicate predicate)
+	{
+		int length = kinds.length;
+		byte[] newKinds = Arrays.copyOf(kinds, length + 1);
+		char[] newChars = Arrays.copyOf(chars, length + 1);
+		CharPredicate[] newPredicates = Arrays.copyOf(predicates, length + 1);
+		newKinds[length] = kind;
+		newChars[length] = c;
+		newPredicates[length] = predicate;
+		return new TriePattern(newKinds, newChars, newPredicates);
+	}
+
+	private static int classEnd(String pattern, int from)
+	{
+		for (int index = from; index < pattern.length(); index++)
+		{
+			char c = pattern.charAt(index);
+			if (c == '\\')
+			{
+				index++;
+			}
+			else if (c == ']' && index > from)
+			{
+				return index;
+			}
+		}
+		throw new IllegalArgumentException(String.format("Unclosed char class at index %d of %s", from - 1, pattern));
+	}
+
+	/**
+	 * @param from the index following the {@code [}
+	 * @param end the index of the {@code ]}
+	 */
+	private static CharPredicate charClass(String pattern, int from, int end)
+	{
+		boolean negated = pattern.charAt(from) == '^' || pattern.charAt(from) == '!';
+		if (negated && from + 1 < end)
+		{
+			from++;
+		}
+		else
+		{
+			negated = false;
+		}
+		StringBuilder ranges = new StringBuilder();
+		for (int index = from; index < end; index++)
+		{
+			char low = pattern.charAt(index);
+			if (low == '\\')
+			{
+				low = pattern.charAt(++index);
+			}
+			char high = low;
+			if (index + 2 < end && pattern.charAt(index + 1) == '-')
+			{
+				index += 2;
+				high = pattern.charAt(index);
+				if (high == '\\' && index + 1 < end)
+				{
+					high = pattern.charAt(++index);
+				}
+			}
+			ranges.append(low).append(high);
+		}
+		char[] bounds = ranges.toString().toCharArray();
+		CharPredicate charClass = c -> {
+			for (int index = 0; index < bounds.length; index += 2)
+			{
+				if (c >= bounds[index] && c <= bounds[index + 1])
+				{
+					return true;
+				}
+			}
+			return false;
+		};
+		return negated ? charClass.negate() : charClass;
+	}
+
+	/**
+	 * @param state a bit set of {@link #words} {@code long}s, which is overwritten with the initial state
+	 */
+	void initialState(long[] state)
+	{
+		Arrays.fill(state, 0L);
+		state[0] = 1L;
+		closure(state);
+	}
+
+	/**
+	 * @param from
+	 * @param c the translated char labelling the edge being followed
+	 * @param to the state reached from {@code from} reading {@code c}
+	 * @param charTranslator the translator of the literal chars
+	 * @return {@code true} if {@code to} is not empty, i.e. if the pattern may still match
+	 */
+	boolean step(long[] from, char c, long[] to, CharUnaryOperator charTranslator)
+	{
+		Arrays.fill(to, 0L);
+		boolean alive = false;
+		for (int element = nextElement(from, 0); element >= 0; element = nextElement(from, element + 1))
+		{
+			int target = -1;
+			switch (kinds[element])
+			{
+			case LITERAL:
+				if (charTranslator.applyAsChar(chars[element]) == c)
+				{
+					target = element + 1;
+				}
+				break;
+			case ANY:
+				target = element + 1;
+				break;
+			case ANY_SEQUENCE:
+				target = element;
+				break;
+			case CLASS:
+				if (predicates[element].test(c))
+				{
+					target = element + 1;
+				}
+				break;
+			}
+			if (target >= 0)
+			{
+				to[target >> 6] |= 1L << target;
+				alive = true;
+			}
+		}
+		if (alive)
+		{
+			closure(to);
+		}
+		return alive;
+	}
+
+	/**
+	 * @return {@code true} if the whole pattern has been matched
+	 */
+	boolean accepts(long[] state)
+	{
+		return (state[kinds.length >> 6] & (1L << kinds.length)) != 0;
+	}
+
+	/**
+	 * @return if {@code state} can be advanced only by a single literal char,
+	 * that char translated, as a nonnegative {@code int}; {@code -1} if no chars
+	 * can advance the state; {@code -2} otherwise
+	 */
+	int singleLiteral(long[] state, CharUnaryOperator charTranslator)
+	{
+		int element = nextElement(state, 0);
+		if (element < 0)
+		{
+			return -1;
+		}
+		if (kinds[element] == LITERAL && nextElement(state, element + 1) < 0)
+		{
+			return charTranslator.applyAsChar(chars[element]);
+		}
+		return -2;
+	}
+
+	/**
+	 * @return the first element, starting from {@code from}, which is set in {@code state}
+	 * and is not the final one, or {@code -1}
+	 */
+	private int nextElement(long[] state, int from)
+	{
+		for (int element = from; element < kinds.length; element++)
+		{
+			long word = state[element >> 6] >>> element;
+			if (word == 0)
+			{
+				element = (element | 63);
+			}
+			else
+			{
+				element += Long.numberOfTrailingZeros(word);
+				if (element < kinds.length)
+				{
+					return element;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * A sequence wildcard can match the empty string, so the element following it is also active.
+	 */
+	private void closure(long[] state)
+	{
+		for (int element = 0; element < kinds.length; element++)
+		{
+			if (kinds[element] == ANY_SEQUENCE && (state[element >> 6] & (1L << element)) != 0)
+			{
+				int next = element + 1;
+				state[next >> 6] |= 1L << next;
+			}
+		}
+	}
+}
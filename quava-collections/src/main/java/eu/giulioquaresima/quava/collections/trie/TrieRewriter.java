@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Rewrites a text replacing every occurrence of the keys of a {@link TrieMap},
+ * found with the same leftmost-longest strategy of {@link TrieMap#findAll(CharSequence, TrieMap.Visitor)},
+ * in a single pass: the unchanged spans and the replacements are written straight
+ * into the output, without building intermediate strings.
+ * <p>
+ * The source can be either an in-memory {@link CharSequence} or a {@link Reader},
+ * which is read through a buffer that grows only as much as needed
+ * to hold the longest candidate match.
+ * <p>
+ * A rewriter is thread safe, provided that the map is not modified meanwhile.
+ *
+ * @author Giulio Quaresima (giulio.quaresima--at--gmail.com)
+ */
+public class TrieRewriter<V>
+{
+	private static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+	private final TrieMap<V> trieMap;
+	private final Function<? super Map.Entry<String, V>, ? extends CharSequence> replacement;
+
+	/**
+	 * @param trieMap
+	 * @param replacement computes the replacement of every matched entry;
+	 * if it returns <code>null</code>, the matched text is left unchanged
+	 */
+	public TrieRewriter(TrieMap<V> trieMap, Function<? super Map.Entry<String, V>, ? extends CharSequence> replacement)
+	{
+		this.trieMap = Objects.requireNonNull(trieMap);
+		this.replacement = Objects.requireNonNull(replacement);
+	}
+
+	/**
+	 * @param trieMap whose values are the replacements of their keys
+	 * @return
+	 */
+	public static <V extends CharSequence> TrieRewriter<V> of(TrieMap<V> trieMap)
+	{
+		return new TrieRewriter<>(trieMap, Map.Entry::getValue);
+	}
+
+	/**
+	 * @param text
+	 * @param out
+	 * @return the count of the matches
+	 * @throws IOException if thrown by {@code out}
+	 */
+	public int rewrite(CharSequence text, Appendable out) throws IOException
+	{
+		int count = 0;
+		TrieMap<V>.Match match = trieMap.new Match();
+		int unchangedStart = 0, textIndex = 0;
+		while (textIndex < text.length())
+		{
+			trieMap.longestMatch(text, textIndex, text.length(), match);
+			if (match.found())
+			{
+				CharSequence replaced = replacement.apply(match.node);
+				if (replaced != null)
+				{
+					out.append(text, unchangedStart, textIndex).append(replaced);
+					unchangedStart = match.end;
+				}
+				textIndex = match.end;
+				count++;
+			}
+			else if (trieMap.codePointTranslator() != null)
+			{
+				textIndex += Character.charCount(Character.codePointAt(text, textIndex));
+			}
+			else
+			{
+				textIndex++;
+			}
+		}
+		out.append(text, unchangedStart, text.length());
+		return count;
+	}
+
+	/**
+	 * @param text
+	 * @return the rewritten text
+	 */
+	public String rewrite(CharSequence text)
+	{
+		StringBuilder out = new StringBuilder(text.length());
+		try
+		{
+			rewrite(text, out);
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException("A StringBuilder never throws", e);
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Streams {@code in} to {@code out}, rewriting it; neither of them is closed.
+	 *
+	 * @param in
+	 * @param out if it is a {@link Writer}, the unchanged spans are written without any copy
+	 * @return the count of the matches
+	 * @throws IOException
+	 */
+	public int rewrite(Reader in, Appendable out) throws IOException
+	{
+		return rewrite(in, out, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param bufferSize the initial size of the read buffer
+	 * @see #rewrite(Reader, Appendable)
+	 */
+	public int rewrite(Reader in, Appendable out, int bufferSize) throws IOException
+	{
+		int count = 0;
+		TrieMap<V>.Match match = trieMap.new Match();
+		char[] buffer = new char[Math.max(bufferSize, 16)];
+		CharBuffer text = CharBuffer.wrap(buffer);
+		int unchangedStart = 0, textIndex = 0, limit = 0;
+		boolean eof = false;
+		while (true)
+		{
+			boolean needMore = textIndex == limit;
+			if ( ! needMore )
+			{
+				int stop = trieMap.longestMatch(text, textIndex, limit, ! eof, match);
+				needMore = stop == limit && ! eof;
+			}
+			if (needMore)
+			{
+				if (eof)
+				{
+					break;
+				}
+				// Flush the unchanged span, then move the candidate match at the beginning of the buffer
+				write(out, text, unchangedStart, textIndex);
+				System.arraycopy(buffer, textIndex, buffer, 0, limit - textIndex);
+				limit -= textIndex;
+				unchangedStart = textIndex = 0;
+				if (limit == buffer.length)
+				{
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+					text = CharBuffer.wrap(buffer);
+				}
+				int read = in.read(buffer, limit, buffer.length - limit);
+				if (read < 0)
+				{
+					eof = true;
+				}
+				else
+				{
+					limit += read;
+				}
+				continue;
+			}
+			if (match.found())
+			{
+				CharSequence replaced = replacement.apply(match.node);
+				if (replaced != null)
+				{
+					write(out, text, unchangedStart, textIndex);
+					out.append(replaced);
+					unchangedStart = match.end;
+				}
+				textIndex = match.end;
+				count++;
+			}
+			else if (trieMap.codePointTranslator() != null)
+			{
+				// A pair split by the end of the buffer has been completed by the refill above
+				textIndex += Character.charCount(Character.codePointAt(buffer, textIndex, limit));
+			}
+			else
+			{
+				textIndex++;
+			}
+		}
+		write(out, text, unchangedStart, limit);
+		return count;
+	}
+
+	private void write(Appendable out, CharBuffer text, int start, int end) throws IOException
+	{
+		if (start < end)
+		{
+			if (out instanceof Writer)
+			{
+				((Writer) out).write(text.array(), start, end - start);
+			}
+			else
+			{
+				out.append(text, start, end);
+			}
+		}
+	}
+}
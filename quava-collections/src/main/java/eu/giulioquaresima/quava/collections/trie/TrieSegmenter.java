@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.ToDoubleFunction;
+
+import eu.giulioquaresima.quava.collections.trie.TrieMap.Visitor;
+
+/**
+ * Splits a text without separators (like the languages written without spaces, or hashtags)
+ * into the words of a dictionary. Unlike {@link TrieMap#findAll(CharSequence, TrieMap.Visitor)},
+ * every char of the text belongs to a segment: the chars which do not begin any word
+ * are reported as single char segments, with a <code>null</code> entry. Three strategies are available:
+ * <ul>
+ * <li>{@link #forwardMaximumMatch(CharSequence, TrieMap.Visitor) forward maximum matching},
+ * which takes the longest word starting at the current position;</li>
+ * <li>{@link #backwardMaximumMatch(CharSequence, TrieMap.Visitor) backward maximum matching},
+ * which takes the longest word ending at the current position, going from the end
+ * of the text to its beginning, by means of a trie of the reversed words;</li>
+ * <li>{@link #bestSegmentation(CharSequence, TrieMap.Visitor) the best segmentation},
+ * which maximizes the sum of the weights of the segments, by dynamic programming
+ * (Viterbi) over the lattice of all the dictionary words occurring in the text.</li>
+ * </ul>
+ * The buffers are reused across the calls, so a segmenter must not be shared between threads;
+ * the reversed trie is built when the segmenter is created, so later changes of the dictionary
+ * are not seen by the backward maximum matching.
+ *
+ * @author Giulio Quaresima (giulio.quaresima--at--gmail.com)
+ */
+public class TrieSegmenter<V>
+{
+	private final TrieMap<V> dictionary;
+	private final TrieMap<Map.Entry<String, V>> reversedDictionary;
+	private final ToDoubleFunction<? super V> weight;
+	private final double unknownWeight;
+
+	private final TrieMap<V>.Match match;
+	private final TrieMap<Map.Entry<String, V>>.Match reversedMatch;
+	private final ReversedCharSequence reversed = new ReversedCharSequence();
+	private int[] boundaries = new int[64];
+	private int[] starts = new int[64];
+	private double[] scores = new double[64];
+	private Object[] entries = new Object[64];
+
+	/**
+	 * @param dictionary its words are copied, reversed, when the segmenter is created: a word added
+	 * or removed later is seen by the forward matching and by the best segmentation, but not by the
+	 * backward matching
+	 * @param weight the weight of a word, for instance the logarithm of its probability
+	 * @param unknownWeight the weight of a char which is not part of any word, it should be
+	 * lower than the weight of any word
+	 * @throws IllegalArgumentException if the dictionary translates the code points,
+	 * since the segments are built char by char
+	 */
+	public TrieSegmenter(TrieMap<V> dictionary, ToDoubleFunction<? super V> weight, double unknownWeight)
+	{
+		if (dictionary.codePointTranslator() != null)
+		{
+			throw new IllegalArgumentException("A dictionary with a code point translator cannot be segmented");
+		}
+		this.dictionary = Objects.requireNonNull(dictionary);
+		this.weight = Objects.requireNonNull(weight);
+		this.unknownWeight = unknownWeight;
+		this.reversedDictionary = new TrieMap<>(dictionary.charTranslator());
+		for (Map.Entry<String, V> entry : dictionary.entrySet())
+		{
+			reversedDictionary.put(reverse(entry.getKey()), entry);
+		}
+		this.match = dictionary.new Match();
+		this.reversedMatch = reversedDictionary.new Match();
+	}
+	/**
+	 * A segmenter whose best segmentation is the one with the fewest segments,
+	 * preferring any word to an unknown char.
+	 */
+	public TrieSegmenter(TrieMap<V> dictionary)
+	{
+		this(dictionary, value -> -1.0, -2.0);
+	}
+
+	/**
+	 * @param text
+	 * @param visitor receives the segments in order, the entry is <code>null</code> for an unknown char
+	 * @return the count of the segments
+	 */
+	public int forwardMaximumMatch(CharSequence text, Visitor<V> visitor)
+	{
+		int count = 0;
+		int textIndex = 0;
+		while (textIndex < text.length())
+		{
+			dictionary.longestMatch(text, textIndex, text.length(), match);
+			int end = match.found() ? match.end : textIndex + 1;
+			visitor.matched(match.node, textIndex, end);
+			textIndex = end;
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @param text
+	 * @param visitor receives the segments in order, the entry is <code>null</code> for an unknown char
+	 * @return the count of the segments
+	 */
+	public int backwardMaximumMatch(CharSequence text, Visitor<V> visitor)
+	{
+		int length = text.length();
+		ensureCapacity(length);
+		reversed.text = text;
+		reversed.end = length;
+		int count = 0;
+		// The segments are found from the last one, so they are stored from the end of the buffers
+		int textEnd = length;
+		while (textEnd > 0)
+		{
+			int reversedStart = length - textEnd;
+			reversedDictionary.longestMatch(reversed, reversedStart, length, reversedMatch);
+			int start = reversedMatch.found() ? textEnd - (reversedMatch.end - reversedStart) : textEnd - 1;
+			count++;
+			boundaries[length - count] = start;
+			entries[length - count] = reversedMatch.found() ? reversedMatch.node.getValue() : null;
+			textEnd = start;
+		}
+		reversed.text = null;
+		for (int index = length - count; index < length; index++)
+		{
+			int end = index + 1 < length ? boundaries[index + 1] : length;
+			visitor.matched(entry(index), boundaries[index], end);
+			entries[index] = null;
+		}
+		return count;
+	}
+
+	/**
+	 * @param text
+	 * @param visitor receives the segments in order, the entry is <code>null</code> for an unknown char
+	 * @return the count of the segments
+	 */
+	public int bestSegmentation(CharSequence text, Visitor<V> visitor)
+	{
+		int length = text.length();
+		ensureCapacity(length);
+		/*
+		 * scores[i] is the best score of text[0, i), boundaries[i] the start of the last segment
+		 * of that best segmentation, and entries[i] its entry
+		 */
+		Arrays.fill(scores, 0, length + 1, Double.NEGATIVE_INFINITY);
+		scores[0] = 0;
+		TrieMap<V>.Node root = dictionary.root();
+		for (int start = 0; start < length; start++)
+		{
+			double score = scores[start];
+			relax(start, start + 1, score + unknownWeight, null);
+			TrieMap<V>.Node node = root;
+			for (int end = start + 1; end <= length; end++)
+			{
+				node = dictionary.next(node, text.charAt(end - 1));
+				if (node == null)
+				{
+					break;
+				}
+				if (node.getKey() != null)
+				{
+					relax(start, end, score + weight.applyAsDouble(node.getValue()), node);
+				}
+			}
+		}
+		// Follow the back pointers, collecting the boundaries from the last one
+		int count = 0;
+		starts[0] = length;
+		for (int end = length; end > 0; end = boundaries[end])
+		{
+			starts[++count] = boundaries[end];
+		}
+		for (int index = count; index > 0; index--)
+		{
+			visitor.matched(entry(starts[index - 1]), starts[index], starts[index - 1]);
+		}
+		Arrays.fill(entries, 0, length + 1, null);
+		return count;
+	}
+
+	/**
+	 * @param text
+	 * @return the segments of the {@link #bestSegmentation(CharSequence, TrieMap.Visitor) best segmentation}
+	 */
+	public List<String> bestSegmentation(CharSequence text)
+	{
+		List<String> segments = new ArrayList<>();
+		bestSegmentation(text, (entry, start, end) -> segments.add(text.subSequence(start, end).toString()));
+		return segments;
+	}
+
+	/**
+	 * Reverses the key char by char, like {@link ReversedCharSequence} reverses the text:
+	 * {@link StringBuilder#reverse()} would keep the surrogate pairs in order, so a word
+	 * outside the BMP would never match.
+	 */
+	private static String reverse(String key)
+	{
+		char[] chars = new char[key.length()];
+		for (int index = 0; index < chars.length; index++)
+		{
+			chars[index] = key.charAt(chars.length - 1 - index);
+		}
+		return new String(chars);
+	}
+
+	private void relax(int start, int end, double score, Map.Entry<String, V> entry)
+	{
+		if (score > scores[end])
+		{
+			scores[end] = score;
+			boundaries[end] = start;
+			entries[end] = entry;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map.Entry<String, V> entry(int index)
+	{
+		return (Map.Entry<String, V>) entries[index];
+	}
+
+	private void ensureCapacity(int length)
+	{
+		if (boundaries.length <= length)
+		{
+			int capacity = Math.max(length + 1, boundaries.length * 2);
+			boundaries = new int[capacity];
+			starts = new int[capacity];
+			scores = new double[capacity];
+			entries = new Object[capacity];
+		}
+	}
+
+	/**
+	 * A reusable reversed view of {@code text[0, end)}
+	 */
+	private static class ReversedCharSequence implements CharSequence
+	{
+		CharSequence text;
+		int end;
+
+		@Override
+		public int length()
+		{
+			return end;
+		}
+
+		@Override
+		public char charAt(int index)
+		{
+			return text.charAt(end - 1 - index);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end)
+		{
+			return new StringBuilder(end - start).append(this, start, end).toString();
+		}
+
+		@Override
+		public String toString()
+		{
+			return new StringBuilder(this).toString();
+		}
+	}
+}
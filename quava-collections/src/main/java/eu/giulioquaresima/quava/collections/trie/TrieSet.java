@@ -0,0 +1,473 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+import eu.giulioquaresima.quava.functions.CharUnaryOperator;
+
+/**
+ * An immutable set of strings stored as a minimal acyclic automaton (a DAWG),
+ * which shares both the prefixes, like a {@link TrieMap}, and the suffixes
+ * of its strings, and does not keep any {@link String} instance:
+ * the strings are rebuilt from the edges while iterating, so they are returned
+ * in their translated form.
+ * <p>
+ * It is built incrementally from sorted input by a {@link Builder},
+ * which keeps in memory only the already minimized automaton plus the path
+ * of the last added string, then it is frozen into a few parallel arrays.
+ *
+ * @author Giulio Quaresima (giulio.quaresima--at--gmail.com)
+ */
+public class TrieSet extends AbstractSet<String>
+{
+	private final CharUnaryOperator charTranslator;
+	private final int size;
+	/**
+	 * The edges of the state {@code s} are the ones from {@code firstEdge[s]}
+	 * (inclusive) to {@code firstEdge[s + 1]} (exclusive), sorted by label
+	 */
+	private final int[] firstEdge;
+	private final boolean[] terminal;
+	private final char[] labels;
+	private final int[] targets;
+	private final int maximumLength;
+
+	private TrieSet(CharUnaryOperator charTranslator, int size, int[] firstEdge, boolean[] terminal, char[] labels, int[] targets, int maximumLength)
+	{
+		this.charTranslator = charTranslator;
+		this.size = size;
+		this.firstEdge = firstEdge;
+		this.terminal = terminal;
+		this.labels = labels;
+		this.targets = targets;
+		this.maximumLength = maximumLength;
+	}
+
+	/**
+	 * @param strings in any order, duplicates allowed
+	 * @param charTranslator see {@link TrieMap#TrieMap(CharUnaryOperator)}
+	 * @return
+	 */
+	public static TrieSet copyOf(Collection<? extends CharSequence> strings, CharUnaryOperator charTranslator)
+	{
+		Builder builder = new Builder(charTranslator);
+		String[] translated = new String[strings.size()];
+		int index = 0;
+		for (CharSequence string : strings)
+		{
+			translated[index++] = builder.translate(string);
+		}
+		Arrays.sort(translated);
+		for (String string : translated)
+		{
+			builder.addTranslated(string);
+		}
+		return builder.build();
+	}
+	public static TrieSet copyOf(Collection<? extends CharSequence> strings)
+	{
+		return copyOf(strings, null);
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	@Override
+	public boolean contains(Object o)
+	{
+		if (o instanceof CharSequence)
+		{
+			CharSequence string = (CharSequence) o;
+			int state = 0;
+			for (int index = 0; index < string.length() && state >= 0; index++)
+			{
+				state = next(state, charTranslator.applyAsChar(string.charAt(index)));
+			}
+			return state >= 0 && terminal[state];
+		}
+		return false;
+	}
+
+	/**
+	 * Scans {@code charSequence} like {@link TrieMap#findAll(CharSequence, TrieMap.Visitor)},
+	 * reporting the leftmost-longest, non overlapping, occurrences of the strings of this set.
+	 *
+	 * @param charSequence
+	 * @param visitor
+	 * @return the count of the occurrences
+	 */
+	public int findAll(CharSequence charSequence, Visitor visitor)
+	{
+		int count = 0;
+		int textIndex = 0;
+		while (textIndex < charSequence.length())
+		{
+			int state = 0, end = -1;
+			for (int index = textIndex; index < charSequence.length(); index++)
+			{
+				state = next(state, charTranslator.applyAsChar(charSequence.charAt(index)));
+				if (state < 0)
+				{
+					break;
+				}
+				if (terminal[state])
+				{
+					end = index + 1;
+				}
+			}
+			if (end > textIndex)
+			{
+				visitor.matched(textIndex, end);
+				count++;
+				textIndex = end;
+			}
+			else
+			{
+				textIndex++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the strings in the order of their (translated) chars
+	 */
+	@Override
+	public Iterator<String> iterator()
+	{
+		return new DawgIterator();
+	}
+
+	/**
+	 * @return the count of the states of the automaton
+	 */
+	public int stateCount()
+	{
+		return terminal.length;
+	}
+
+	/**
+	 * @return the count of the edges of the automaton
+	 */
+	public int edgeCount()
+	{
+		return labels.length;
+	}
+
+	private int next(int state, char c)
+	{
+		int low = firstEdge[state], high = firstEdge[state + 1] - 1;
+		while (low <= high)
+		{
+			int middle = (low + high) >>> 1;
+			char label = labels[middle];
+			if (label < c)
+			{
+				low = middle + 1;
+			}
+			else if (label > c)
+			{
+				high = middle - 1;
+			}
+			else
+			{
+				return targets[middle];
+			}
+		}
+		return -1;
+	}
+
+	@FunctionalInterface
+	public interface Visitor
+	{
+		void matched(int start, int end);
+	}
+
+	private class DawgIterator implements Iterator<String>
+	{
+		private final char[] path = new char[maximumLength];
+		private final int[] states = new int[maximumLength + 1];
+		private final int[] edges = new int[maximumLength + 1];
+		private int depth = 0;
+		private String next = null;
+
+		DawgIterator()
+		{
+			states[0] = 0;
+			edges[0] = firstEdge[0];
+			if (size > 0 && terminal[0])
+			{
+				next = "";
+			}
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			while (next == null && depth >= 0)
+			{
+				int state = states[depth];
+				if (edges[depth] >= firstEdge[state + 1])
+				{
+					depth--;
+					continue;
+				}
+				int edge = edges[depth]++;
+				path[depth] = labels[edge];
+				int target = targets[edge];
+				depth++;
+				states[depth] = target;
+				edges[depth] = firstEdge[target];
+				if (terminal[target])
+				{
+					next = new String(path, 0, depth);
+				}
+			}
+			return next != null;
+		}
+
+		@Override
+		public String next()
+		{
+			if (hasNext())
+			{
+				String string = next;
+				next = null;
+				return string;
+			}
+			throw new NoSuchElementException("The iteration has no more elements");
+		}
+	}
+
+	/**
+	 * Builds a {@link TrieSet} from strings added in increasing order of their translated chars,
+	 * minimizing the automaton on the fly (Daciuk et al. incremental algorithm):
+	 * whenever a new string diverges from the previous one, the states of the previous
+	 * string's suffix can no longer change, so they are replaced by their
+	 * equivalent registered states, or registered themselves.
+	 */
+	public static class Builder
+	{
+		private final CharUnaryOperator charTranslator;
+		private final Map<State, State> register = new HashMap<>();
+		private final List<State> path = new ArrayList<>();
+		private final StringBuilder previous = new StringBuilder();
+		private int size = 0;
+		private int maximumLength = 0;
+		private boolean built = false;
+
+		public Builder(CharUnaryOperator charTranslator)
+		{
+			this.charTranslator = Optional.ofNullable(charTranslator).orElseGet(CharUnaryOperator::identity);
+			path.add(new State());
+		}
+		public Builder()
+		{
+			this(null);
+		}
+
+		/**
+		 * @param string
+		 * @return this builder
+		 * @throws IllegalArgumentException if {@code string} (translated) precedes the last added one
+		 */
+		public Builder add(CharSequence string)
+		{
+			return addTranslated(translate(string));
+		}
+
+		public TrieSet build()
+		{
+			if (built)
+			{
+				throw new IllegalStateException("Already built");
+			}
+			built = true;
+			minimize(0);
+			State root = path.get(0);
+
+			Map<State, Integer> ids = new IdentityHashMap<>();
+			List<State> states = new ArrayList<>();
+			ids.put(root, 0);
+			states.add(root);
+			int edgeCount = 0;
+			for (int index = 0; index < states.size(); index++)
+			{
+				State state = states.get(index);
+				edgeCount += state.count;
+				for (int edge = 0; edge < state.count; edge++)
+				{
+					if ( ! ids.containsKey(state.targets[edge]) )
+					{
+						ids.put(state.targets[edge], states.size());
+						states.add(state.targets[edge]);
+					}
+				}
+			}
+
+			int[] firstEdge = new int[states.size() + 1];
+			boolean[] terminal = new boolean[states.size()];
+			char[] labels = new char[edgeCount];
+			int[] targets = new int[edgeCount];
+			int edgeIndex = 0;
+			for (int index = 0; index < states.size(); index++)
+			{
+				State state = states.get(index);
+				firstEdge[index] = edgeIndex;
+				terminal[index] = state.terminal;
+				for (int edge = 0; edge < state.count; edge++, edgeIndex++)
+				{
+					labels[edgeIndex] = state.labels[edge];
+					targets[edgeIndex] = ids.get(state.targets[edge]);
+				}
+			}
+			firstEdge[states.size()] = edgeIndex;
+			register.clear();
+			return new TrieSet(charTranslator, size, firstEdge, terminal, labels, targets, maximumLength);
+		}
+
+		String translate(CharSequence string)
+		{
+			char[] chars = new char[string.length()];
+			for (int index = 0; index < chars.length; index++)
+			{
+				chars[index] = charTranslator.applyAsChar(string.charAt(index));
+			}
+			return new String(chars);
+		}
+
+		Builder addTranslated(String string)
+		{
+			if (built)
+			{
+				throw new IllegalStateException("Already built");
+			}
+			int prefix = 0;
+			int limit = Math.min(string.length(), previous.length());
+			while (prefix < limit && string.charAt(prefix) == previous.charAt(prefix))
+			{
+				prefix++;
+			}
+			if (prefix == string.length() && prefix == previous.length() && size > 0)
+			{
+				return this; // duplicate
+			}
+			if (prefix < limit ? string.charAt(prefix) < previous.charAt(prefix) : (string.length() < previous.length()))
+			{
+				throw new IllegalArgumentException(String.format("%s has been added out of order, after %s", string, previous));
+			}
+			minimize(prefix);
+			State state = path.get(prefix);
+			for (int index = prefix; index < string.length(); index++)
+			{
+				State target = new State();
+				state.append(string.charAt(index), target);
+				path.add(target);
+				state = target;
+			}
+			state.terminal = true;
+			previous.setLength(0);
+			previous.append(string);
+			size++;
+			maximumLength = Math.max(maximumLength, string.length());
+			return this;
+		}
+
+		/**
+		 * Replaces or registers the states of the previous string's path deeper than {@code depth}
+		 */
+		private void minimize(int depth)
+		{
+			for (int index = path.size() - 1; index > depth; index--)
+			{
+				State state = path.remove(index);
+				State registered = register.putIfAbsent(state, state);
+				if (registered != null)
+				{
+					State parent = path.get(index - 1);
+					parent.targets[parent.count - 1] = registered;
+				}
+			}
+		}
+	}
+
+	/**
+	 * A state of the automaton under construction: once registered, it never changes.
+	 */
+	private static final class State
+	{
+		boolean terminal = false;
+		char[] labels = new char[2];
+		State[] targets = new State[2];
+		int count = 0;
+
+		void append(char label, State target)
+		{
+			if (count == labels.length)
+			{
+				labels = Arrays.copyOf(labels, count * 2);
+				targets = Arrays.copyOf(targets, count * 2);
+			}
+			labels[count] = label;
+			targets[count] = target;
+			count++;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int hash = terminal ? 1 : 0;
+			for (int index = 0; index < count; index++)
+			{
+				hash = 31 * (31 * hash + labels[index]) + System.identityHashCode(targets[index]);
+			}
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (this == obj)
+				return true;
+			if ( ! (obj instanceof State) )
+				return false;
+			State other = (State) obj;
+			if (terminal != other.terminal || count != other.count)
+				return false;
+			for (int index = 0; index < count; index++)
+			{
+				if (labels[index] != other.labels[index] || targets[index] != other.targets[index])
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+public class TestArrayTrieMap
+{
+	@Test
+	public void testMap()
+	{
+		ArrayTrieMap<Integer> map = new ArrayTrieMap<>();
+		assertTrue(map.isEmpty());
+		assertNull(map.put("tea", 1));
+		assertNull(map.put("ten", 2));
+		assertNull(map.put("to", 3));
+		assertNull(map.put("", 0));
+		assertNull(map.put("inn", 4));
+		assertEquals(1, map.put("tea", 5));
+		assertEquals(5, map.size());
+		assertEquals(5, map.get("tea"));
+		assertEquals(0, map.get(""));
+		assertNull(map.get("te"));
+		assertNull(map.get("teas"));
+		assertNull(map.get(42));
+		assertFalse(map.containsKey("t"));
+		assertTrue(map.containsKey("to"));
+
+		List<String> keys = new ArrayList<>(map.keySet());
+		assertEquals(new ArrayList<>(new TreeMap<>(map).keySet()), keys);
+		assertEquals(new TreeMap<>(map), map);
+		assertEquals(map, new TreeMap<>(map));
+
+		assertEquals(3, map.remove("to"));
+		assertNull(map.remove("to"));
+		assertNull(map.remove("te"));
+		assertEquals(0, map.remove(""));
+		assertEquals(3, map.size());
+		assertThrows(IllegalArgumentException.class, () -> map.put(null, 6));
+
+		map.entrySet().iterator().next().setValue(7);
+		assertEquals(7, map.get("inn"));
+		map.replaceAll((key, value) -> value * 10);
+		assertEquals(70, map.get("inn"));
+		assertEquals(50, map.get("tea"));
+
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertEquals(1, map.nodeCount());
+	}
+
+	@Test
+	public void testTranslator()
+	{
+		ArrayTrieMap<Integer> map = new ArrayTrieMap<>(Character::toLowerCase);
+		map.put("Key", 1);
+		assertEquals(1, map.get("KEY"));
+		assertEquals(1, map.put("key", 2));
+		assertEquals("key", map.keySet().iterator().next());
+	}
+
+	@Test
+	public void testFreeList()
+	{
+		ArrayTrieMap<Integer> map = new ArrayTrieMap<>();
+		map.put("abc", 1);
+		map.put("abd", 2);
+		assertEquals(5, map.nodeCount());
+		map.remove("abc");
+		assertEquals(4, map.nodeCount());
+		map.remove("abd");
+		assertEquals(1, map.nodeCount());
+		map.put("xyz", 3);
+		assertEquals(4, map.nodeCount());
+		map.trimToSize();
+		assertEquals(3, map.get("xyz"));
+		map.put("xyzw", 4);
+		assertEquals(5, map.nodeCount());
+	}
+
+	@Test
+	public void testIteratorRemove()
+	{
+		ArrayTrieMap<Integer> map = new ArrayTrieMap<>();
+		for (String key : new String[] {"a", "ab", "abc", "abd", "b", "bc"})
+		{
+			map.put(key, key.length());
+		}
+		for (Iterator<Map.Entry<String, Integer>> iterator = map.entrySet().iterator(); iterator.hasNext(); )
+		{
+			if (iterator.next().getKey().length() != 2)
+			{
+				iterator.remove();
+			}
+		}
+		assertEquals(Arrays.asList("ab", "bc"), new ArrayList<>(map.keySet()));
+		assertEquals(5, map.nodeCount());
+	}
+
+	@Test
+	public void testAgainstTreeMap()
+	{
+		Random random = new Random(43);
+		ArrayTrieMap<Integer> map = new ArrayTrieMap<>();
+		TreeMap<String, Integer> expected = new TreeMap<>();
+		for (int operation = 0; operation < 20000; operation++)
+		{
+			StringBuilder key = new StringBuilder();
+			for (int length = random.nextInt(6); length > 0; length--)
+			{
+				key.append((char) ('a' + random.nextInt(4)));
+			}
+			String string = key.toString();
+			if (random.nextInt(3) == 0)
+			{
+				assertEquals(expected.remove(string), map.remove(string));
+			}
+			else
+			{
+				assertEquals(expected.put(string, operation), map.put(string, operation));
+			}
+		}
+		assertEquals(expected.size(), map.size());
+		assertEquals(new ArrayList<>(expected.entrySet()), new ArrayList<>(map.entrySet()));
+		List<String> keys = new ArrayList<>();
+		map.forEach((key, value) -> keys.add(key));
+		assertEquals(new ArrayList<>(expected.keySet()), keys);
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class TestBinaryPrefixTrie
+{
+	@Test
+	public void testIPv4()
+	{
+		BinaryPrefixTrie<String> routes = new BinaryPrefixTrie<>(32);
+		assertNull(routes.put(0, 0, "default"));
+		assertNull(routes.put(ipv4(10, 0, 0, 0), 8, "10/8"));
+		assertNull(routes.put(ipv4(10, 1, 0, 0), 16, "10.1/16"));
+		assertNull(routes.put(ipv4(10, 1, 2, 128), 25, "10.1.2.128/25"));
+		assertNull(routes.put(ipv4(192, 168, 0, 0), 12, "192.160/12"));
+		assertEquals("10/8", routes.put(ipv4(10, 255, 255, 255), 8, "ten"));
+		assertEquals(5, routes.size());
+
+		assertEquals("default", routes.longestPrefixMatch(ipv4(11, 0, 0, 1)));
+		assertEquals("ten", routes.longestPrefixMatch(ipv4(10, 2, 0, 1)));
+		assertEquals("10.1/16", routes.longestPrefixMatch(ipv4(10, 1, 2, 127)));
+		assertEquals("10.1.2.128/25", routes.longestPrefixMatch(ipv4(10, 1, 2, 200)));
+		assertEquals("192.160/12", routes.longestPrefixMatch(ipv4(192, 175, 1, 1)));
+		assertEquals("default", routes.longestPrefixMatch(ipv4(192, 176, 1, 1)));
+		assertEquals("10.1.2.128/25", routes.longestPrefixMatch(new byte[] {10, 1, 2, (byte) 129}));
+
+		assertEquals("10.1/16", routes.get(new byte[] {10, 1, 99, 99}, 16));
+		assertNull(routes.get(new byte[] {10, 1}, 15));
+		assertEquals("10.1.2.128/25", routes.remove(new byte[] {10, 1, 2, (byte) 128}, 25));
+		assertEquals("10.1/16", routes.longestPrefixMatch(ipv4(10, 1, 2, 200)));
+		assertEquals("default", routes.remove(new byte[0], 0));
+		assertNull(routes.longestPrefixMatch(ipv4(11, 0, 0, 1)));
+		assertEquals(3, routes.size());
+
+		assertThrows(IllegalArgumentException.class, () -> routes.put(0, 33, "too long"));
+		assertThrows(IllegalStateException.class, () -> routes.longestPrefixMatch(0L));
+		assertThrows(NullPointerException.class, () -> routes.put(0, 1, null));
+	}
+
+	@Test
+	public void testPruning()
+	{
+		BinaryPrefixTrie<Integer> trie = new BinaryPrefixTrie<>(32);
+		// The leaf of a /32 is a child of the root, skipping the levels 1 and 2
+		trie.put(ipv4(1, 2, 3, 4), 32, 1);
+		assertEquals(2, trie.nodeCount());
+		// The /24 ends on the edge, which is split
+		trie.put(ipv4(1, 2, 3, 0), 24, 2);
+		assertEquals(3, trie.nodeCount());
+		assertEquals(2, trie.longestPrefixMatch(ipv4(1, 2, 3, 5)));
+		assertNull(trie.longestPrefixMatch(ipv4(1, 9, 3, 4)));
+		trie.remove(new byte[] {1, 2, 3, 4}, 32);
+		assertEquals(2, trie.nodeCount());
+		trie.remove(new byte[] {1, 2, 3}, 24);
+		assertEquals(1, trie.nodeCount());
+		assertTrue(trie.isEmpty());
+		trie.put(ipv4(5, 6, 7, 8), 32, 3);
+		assertEquals(2, trie.nodeCount());
+		assertEquals(3, trie.longestPrefixMatch(ipv4(5, 6, 7, 8)));
+		assertNull(trie.longestPrefixMatch(ipv4(5, 6, 7, 9)));
+	}
+
+	@Test
+	public void testAgainstLinearScan()
+	{
+		Random random = new Random(45);
+		BinaryPrefixTrie<Integer> trie = new BinaryPrefixTrie<>(128);
+		Map<String, Integer> prefixes = new HashMap<>();
+		for (int count = 0; count < 2000; count++)
+		{
+			// A few common leading bits, so that the prefixes nest
+			long high = random.nextLong() & 0x0F0F_FFFF_FFFF_FFFFL;
+			long low = random.nextLong();
+			int length = random.nextInt(129);
+			String key = prefix(high, low, length);
+			trie.put(bytes(high, low), length, count);
+			prefixes.put(key, count);
+			if (random.nextInt(4) == 0)
+			{
+				trie.remove(bytes(high, low), length);
+				prefixes.remove(key);
+			}
+		}
+		assertEquals(prefixes.size(), trie.size());
+		for (int count = 0; count < 2000; count++)
+		{
+			long high = random.nextLong() & 0x0F0F_FFFF_FFFF_FFFFL;
+			long low = random.nextLong();
+			Integer expected = null;
+			for (int length = 128; length >= 0 && expected == null; length--)
+			{
+				expected = prefixes.get(prefix(high, low, length));
+			}
+			assertEquals(expected, trie.longestPrefixMatch(high, low));
+			assertEquals(expected, trie.longestPrefixMatch(bytes(high, low)));
+		}
+	}
+
+	@Test
+	public void testSparseIPv6()
+	{
+		BinaryPrefixTrie<String> routes = new BinaryPrefixTrie<>(128);
+		byte[] first = bytes(0x2001_0db8_0000_0001L, 1L);
+		byte[] second = bytes(0x2001_0db8_0000_0002L, 1L);
+		routes.put(first, 128, "first");
+		routes.put(second, 128, "second");
+		// The root, the branch on the eighth byte and the two leaves
+		assertEquals(4, routes.nodeCount());
+		assertEquals("first", routes.longestPrefixMatch(0x2001_0db8_0000_0001L, 1L));
+		assertEquals("second", routes.longestPrefixMatch(second));
+		assertNull(routes.longestPrefixMatch(0x2001_0db8_0000_0001L, 2L));
+		assertNull(routes.get(first, 120));
+		
+		routes.put(first, 32, "2001:db8::/32");
+		assertEquals(5, routes.nodeCount());
+		assertEquals("2001:db8::/32", routes.longestPrefixMatch(0x2001_0db8_0000_0001L, 2L));
+		assertEquals("2001:db8::/32", routes.longestPrefixMatch(0x2001_0db8_0000_0003L, 1L));
+		assertEquals("second", routes.remove(second, 128));
+		// The branch, left with no prefixes and a single child, is spliced out
+		assertEquals(3, routes.nodeCount());
+		assertEquals("2001:db8::/32", routes.longestPrefixMatch(second));
+		assertEquals("first", routes.longestPrefixMatch(first));
+		
+		Random random = new Random(45);
+		routes.clear();
+		for (int count = 0; count < 1000; count++)
+		{
+			routes.put(bytes(random.nextLong(), random.nextLong()), 48 + random.nextInt(81), "route");
+		}
+		// Without the path compression a route could take up to 16 nodes
+		assertTrue(routes.nodeCount() <= 2 * routes.size() + 1);
+	}
+
+	private static int ipv4(int a, int b, int c, int d)
+	{
+		return a << 24 | b << 16 | c << 8 | d;
+	}
+
+	private static byte[] bytes(long high, long low)
+	{
+		return ByteBuffer.allocate(16).putLong(high).putLong(low).array();
+	}
+
+	private static String prefix(long high, long low, int length)
+	{
+		StringBuilder bits = new StringBuilder();
+		for (int bit = 0; bit < length; bit++)
+		{
+			long chunk = bit < 64 ? high : low;
+			bits.append((chunk >>> (63 - bit % 64)) & 1);
+		}
+		return bits.toString();
+	}
+}
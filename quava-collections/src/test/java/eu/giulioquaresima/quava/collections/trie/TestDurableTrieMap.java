@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import eu.giulioquaresima.quava.collections.trie.DurableTrieMap.ValueCodec;
+
+public class TestDurableTrieMap
+{
+	@TempDir
+	Path directory;
+	
+	@Test
+	public void testRecoveryFromLog() throws IOException
+	{
+		try (DurableTrieMap<String> map = new DurableTrieMap<>(directory, ValueCodec.strings()))
+		{
+			map.put("Uno", "One");
+			map.put("Due", "Two");
+			map.put("Tre", "Three");
+			map.put("Tre", "Drei");
+			map.remove("Due");
+			map.put("Null", null);
+			map.put("Removed", null);
+			assertTrue(map.containsKey("Removed"));
+			assertNull(map.remove("Removed"));
+			assertFalse(map.containsKey("Removed"));
+		}
+		assertFalse(Files.exists(directory.resolve(DurableTrieMap.CHECKPOINT_FILE_NAME)));
+		try (DurableTrieMap<String> map = new DurableTrieMap<>(directory, ValueCodec.strings()))
+		{
+			assertEquals(3, map.size());
+			assertEquals("One", map.get("Uno"));
+			assertEquals("Drei", map.get("Tre"));
+			assertFalse(map.containsKey("Due"));
+			assertTrue(map.containsKey("Null"));
+			assertFalse(map.containsKey("Removed"));
+			assertNull(map.get("Null"));
+			map.clear();
+			map.put("Quattro", "Four");
+		}
+		try (DurableTrieMap<String> map = new DurableTrieMap<>(directory, ValueCodec.strings()))
+		{
+			assertEquals(1, map.size());
+			assertEquals("Four", map.get("Quattro"));
+		}
+	}
+	
+	@Test
+	public void testCheckpoint() throws IOException
+	{
+		try (DurableTrieMap<Integer> map = new DurableTrieMap<>(directory, ValueCodec.serialized(), Character::toLowerCase))
+		{
+			map.setCheckpointInterval(100);
+			for (int i = 0; i < 250; i++)
+			{
+				map.put("Key" + i, i);
+			}
+			assertTrue(Files.exists(directory.resolve(DurableTrieMap.CHECKPOINT_FILE_NAME)));
+			map.remove("key7");
+		}
+		try (DurableTrieMap<Integer> map = new DurableTrieMap<>(directory, ValueCodec.serialized(), Character::toLowerCase))
+		{
+			assertEquals(249, map.size());
+			assertEquals(42, map.get("KEY42"));
+			assertEquals(249, map.get("key249"));
+			assertFalse(map.containsKey("Key7"));
+			map.checkpoint();
+			assertEquals(0, Files.size(directory.resolve(DurableTrieMap.LOG_FILE_NAME)));
+		}
+		try (DurableTrieMap<Integer> map = new DurableTrieMap<>(directory, ValueCodec.serialized(), Character::toLowerCase))
+		{
+			assertEquals(249, map.size());
+		}
+	}
+	
+	@Test
+	public void testCrashBeforeLogTruncation() throws IOException
+	{
+		Path crashed = Files.createDirectory(directory.resolve("crashed"));
+		try (DurableTrieMap<String> map = new DurableTrieMap<>(directory, ValueCodec.strings()))
+		{
+			map.put("a", "1");
+			map.commit();
+			map.put("a", "2");
+			map.put("b", "1");
+			map.writeCheckpoint();
+			// The files as they are if the process dies before the log is truncated
+			for (String fileName : new String[] {DurableTrieMap.CHECKPOINT_FILE_NAME, DurableTrieMap.LOG_FILE_NAME})
+			{
+				Files.copy(directory.resolve(fileName), crashed.resolve(fileName));
+			}
+		}
+		assertTrue(Files.size(crashed.resolve(DurableTrieMap.LOG_FILE_NAME)) > 0);
+		try (DurableTrieMap<String> map = new DurableTrieMap<>(crashed, ValueCodec.strings()))
+		{
+			assertEquals(2, map.size());
+			assertEquals("2", map.get("a"));
+			assertEquals("1", map.get("b"));
+		}
+	}
+	
+	@Test
+	public void testFailingCodec() throws IOException
+	{
+		ValueCodec<String> strings = ValueCodec.strings();
+		ValueCodec<String> codec = new ValueCodec<String>()
+		{
+			@Override
+			public void write(String value, DataOutput output) throws IOException
+			{
+				if (value.isEmpty())
+				{
+					throw new IOException("Empty value");
+				}
+				strings.write(value, output);
+			}
+			
+			@Override
+			public String read(DataInput input) throws IOException
+			{
+				return strings.read(input);
+			}
+		};
+		try (DurableTrieMap<String> map = new DurableTrieMap<>(directory, codec))
+		{
+			map.put("Uno", "One");
+			assertThrows(UncheckedIOException.class, () -> map.put("Uno", ""));
+			assertThrows(UncheckedIOException.class, () -> map.put("Due", ""));
+			assertEquals("One", map.get("Uno"));
+			assertFalse(map.containsKey("Due"));
+			map.put("Tre", "Three");
+		}
+		try (DurableTrieMap<String> map = new DurableTrieMap<>(directory, codec))
+		{
+			assertEquals(2, map.size());
+			assertEquals("One", map.get("Uno"));
+			assertEquals("Three", map.get("Tre"));
+		}
+	}
+	
+	@Test
+	public void testTornLogTail() throws IOException
+	{
+		try (DurableTrieMap<String> map = new DurableTrieMap<>(directory, ValueCodec.strings()))
+		{
+			map.put("Uno", "One");
+			map.put("Due", "Two");
+		}
+		Path log = directory.resolve(DurableTrieMap.LOG_FILE_NAME);
+		long length = Files.size(log);
+		try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE))
+		{
+			channel.truncate(length - 3);
+		}
+		try (DurableTrieMap<String> map = new DurableTrieMap<>(directory, ValueCodec.strings()))
+		{
+			assertEquals(1, map.size());
+			assertEquals("One", map.get("Uno"));
+			map.put("Tre", "Three");
+		}
+		try (DurableTrieMap<String> map = new DurableTrieMap<>(directory, ValueCodec.strings()))
+		{
+			assertEquals(2, map.size());
+			assertEquals("Three", map.get("Tre"));
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+public class TestLayeredTrieMap
+{
+	@Test
+	public void testLayers()
+	{
+		TrieMap<Integer> base = new TrieMap<>();
+		base.put("cat", 1);
+		base.put("category", 2);
+		base.put("dog", 3);
+		Queue<Runnable> merges = new ArrayDeque<>();
+		LayeredTrieMap<Integer> map = new LayeredTrieMap<>(base, 100, merges::add);
+		base.clear();
+		assertEquals(3, map.size());
+
+		assertEquals(2, map.remove("category"));
+		assertNull(map.remove("category"));
+		assertEquals(3, map.put("dog", 4));
+		assertNull(map.put("cow", 5));
+		assertEquals(3, map.size());
+		assertFalse(map.containsKey("category"));
+		assertEquals(3, map.deltaSize());
+		assertEquals(Arrays.asList("cat", "cow", "dog"), new ArrayList<>(map.keySet()));
+
+		CompletableFuture<Void> merge = map.merge();
+		assertEquals(1, merges.size());
+		assertNull(map.put("category", 6));
+		assertEquals(5, map.remove("cow"));
+		assertEquals(4, map.get("dog"));
+		assertEquals(Arrays.asList("cat", "category", "dog"), new ArrayList<>(map.keySet()));
+
+		merges.remove().run();
+		merge.join();
+		assertEquals(2, map.deltaSize());
+		assertEquals(3, map.size());
+		assertEquals(6, map.get("category"));
+		assertNull(map.get("cow"));
+		assertEquals(Arrays.asList(1, 6, 4), new ArrayList<>(map.values()));
+
+		map.merge();
+		merges.remove().run();
+		assertEquals(0, map.deltaSize());
+		assertEquals(new TreeMap<>(map), map);
+
+		assertThrows(UnsupportedOperationException.class, () -> map.keySet().remove("cat"));
+		map.clear();
+		assertTrue(map.isEmpty());
+	}
+
+	@Test
+	public void testFindAll()
+	{
+		TrieMap<String> base = new TrieMap<>(Character::toLowerCase);
+		base.put("new", "base");
+		base.put("new york", "base");
+		base.put("york", "base");
+		LayeredTrieMap<String> map = new LayeredTrieMap<>(base, 100, Runnable::run);
+		map.remove("new york");
+		map.put("New York City", "delta");
+		map.put("yo", "delta");
+
+		List<String> matches = new ArrayList<>();
+		TrieMap.Visitor<String> visitor = (entry, start, end) -> matches.add(entry.getKey() + "=" + entry.getValue());
+		assertEquals(4, map.findAll("new york, new york city, yo", visitor));
+		assertEquals(Arrays.asList("new=base", "york=base", "New York City=delta", "yo=delta"), matches);
+
+		matches.clear();
+		map.merge().join();
+		assertEquals(0, map.deltaSize());
+		map.findAll("new york, new york city, yo", visitor);
+		assertEquals(Arrays.asList("new=base", "york=base", "New York City=delta", "yo=delta"), matches);
+	}
+
+	@Test
+	public void testAgainstTreeMap()
+	{
+		Random random = new Random(44);
+		LayeredTrieMap<Integer> map = new LayeredTrieMap<>(new TrieMap<>(), 64, Runnable::run);
+		TreeMap<String, Integer> expected = new TreeMap<>();
+		for (int operation = 0; operation < 10000; operation++)
+		{
+			StringBuilder key = new StringBuilder();
+			for (int length = 1 + random.nextInt(5); length > 0; length--)
+			{
+				key.append((char) ('a' + random.nextInt(4)));
+			}
+			String string = key.toString();
+			if (random.nextInt(3) == 0)
+			{
+				assertEquals(expected.remove(string), map.remove(string));
+			}
+			else
+			{
+				assertEquals(expected.put(string, operation), map.put(string, operation));
+			}
+			assertEquals(expected.size(), map.size());
+		}
+		assertEquals(new ArrayList<>(expected.entrySet()), new ArrayList<>(map.entrySet()));
+	}
+}
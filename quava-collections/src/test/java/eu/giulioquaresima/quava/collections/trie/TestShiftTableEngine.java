@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class TestShiftTableEngine
+{
+	@Test
+	public void testSameMatchesAsTrieMap()
+	{
+		Random random = new Random(42);
+		for (int minimumLength : new int[] { 1, 2, 3, 4, 8, 12 })
+		{
+			TrieMap<String> trieMap = new TrieMap<>(Character::toUpperCase);
+			for (int index = 0; index < 200; index++)
+			{
+				String key = randomString(random, minimumLength + random.nextInt(6), "ABCDEFGH0123456789-");
+				trieMap.put(key, key);
+			}
+			ShiftTableEngine<String> engine = new ShiftTableEngine<>(trieMap);
+			assertEquals(minimumLength, engine.window());
+			for (int round = 0; round < 50; round++)
+			{
+				StringBuilder text = new StringBuilder(randomString(random, 2000, "abcdefgh0123456789- xyz"));
+				// Plant some keys, with a different case
+				for (int plant = 0; plant < 20; plant++)
+				{
+					String key = new ArrayList<>(trieMap.keySet()).get(random.nextInt(trieMap.size()));
+					text.insert(random.nextInt(text.length()), key.toLowerCase());
+				}
+				assertEquals(matches(trieMap, text), matches(engine, text));
+			}
+		}
+	}
+	
+	@Test
+	public void testSelection()
+	{
+		TrieMap<Integer> productCodes = new TrieMap<>();
+		productCodes.put("SKU-000123", 123);
+		productCodes.put("SKU-000456-XL", 456);
+		productCodes.put("EAN-4006381333931", 931);
+		MatchingEngine<Integer> engine = MatchingEngine.of(productCodes);
+		assertTrue(engine instanceof ShiftTableEngine);
+		String text = "Ordered SKU-000456-XL and SKU-000123, then SKU-000456 and EAN-4006381333931.";
+		assertEquals(matches(productCodes, text), matches(engine, text));
+		assertEquals(Arrays.asList("8-21", "26-36", "58-75"), matches(engine, text));
+		
+		productCodes.put("SKU", 0);
+		assertSame(productCodes, MatchingEngine.of(productCodes));
+		TrieMap<Integer> empty = new TrieMap<>();
+		assertSame(empty, MatchingEngine.of(empty));
+		assertThrows(IllegalArgumentException.class, () -> new ShiftTableEngine<>(new TrieMap<>()));
+	}
+	
+	private static List<String> matches(MatchingEngine<?> engine, CharSequence text)
+	{
+		List<String> matches = new ArrayList<>();
+		engine.findAll(text, (entry, start, end) -> matches.add(start + "-" + end));
+		return matches;
+	}
+	
+	private static String randomString(Random random, int length, String alphabet)
+	{
+		char[] chars = new char[length];
+		for (int index = 0; index < length; index++)
+		{
+			chars[index] = alphabet.charAt(random.nextInt(alphabet.length()));
+		}
+		return new String(chars);
+	}
+}
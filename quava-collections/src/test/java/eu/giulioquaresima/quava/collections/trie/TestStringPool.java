@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+public class TestStringPool
+{
+	@Test
+	public void testIntern()
+	{
+		StringPool pool = new StringPool();
+		char[] buffer = "let x = x + xs; let".toCharArray();
+		String let = pool.intern(buffer, 0, 3);
+		assertEquals("let", let);
+		String x = pool.intern(buffer, 4, 1);
+		assertEquals("x", x);
+		assertSame(x, pool.intern(buffer, 8, 1));
+		assertSame(let, pool.intern(buffer, 16, 3));
+		assertEquals("xs", pool.intern(buffer, 12, 2));
+		assertSame(x, pool.intern(new StringBuilder("x")));
+		assertSame(let, pool.intern("a let", 2, 5));
+		assertEquals("", pool.intern(buffer, 3, 0));
+		assertEquals(3, pool.size());
+		assertThrows(IndexOutOfBoundsException.class, () -> pool.intern(buffer, 17, 3));
+		
+		pool.clear();
+		assertEquals(0, pool.size());
+		assertNotSame(let, pool.intern("let"));
+	}
+	
+	@Test
+	public void testCanonicalFormAndBound()
+	{
+		StringPool pool = new StringPool(Character::toLowerCase, 2);
+		String select = pool.intern("SELECT");
+		assertEquals("select", select);
+		assertSame(select, pool.intern("Select".toCharArray(), 0, 6));
+		assertSame(select, pool.intern("select"));
+		String from = pool.intern("FROM");
+		assertEquals(2, pool.size());
+		
+		String where = pool.intern("WHERE");
+		assertEquals("where", where);
+		assertNotSame(where, pool.intern("where"));
+		assertSame(from, pool.intern("from"));
+		assertEquals(2, pool.size());
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+public class TestSuffixAutomaton
+{
+	@Test
+	public void testQueries()
+	{
+		String text = "It is fundamental and a fundament of this data structure to be greedy. Greetings!";
+		SuffixAutomaton suffixAutomaton = new SuffixAutomaton(text);
+		assertTrue(suffixAutomaton.contains("fundament"));
+		assertTrue(suffixAutomaton.contains("ta str"));
+		assertFalse(suffixAutomaton.contains("Fundament"));
+		assertEquals(2, suffixAutomaton.count("fundament"));
+		assertEquals(6, suffixAutomaton.indexOf("fundament"));
+		assertEquals(1, suffixAutomaton.count("Greet"));
+		assertEquals(71, suffixAutomaton.indexOf("Greet"));
+		assertEquals(-1, suffixAutomaton.indexOf("greet"));
+		assertEquals(0, suffixAutomaton.count("xyz"));
+		assertEquals(text.length() + 1, suffixAutomaton.count(""));
+		assertEquals(0, suffixAutomaton.indexOf(""));
+		
+		SuffixAutomaton caseInsensitive = new SuffixAutomaton(text, Character::toLowerCase);
+		assertEquals(2, caseInsensitive.count("GREE"));
+		assertEquals(63, caseInsensitive.indexOf("GREE"));
+	}
+	
+	@Test
+	public void testAgainstBruteForce() throws URISyntaxException, IOException
+	{
+		Path unordered = Paths.get(TestSuffixAutomaton.class.getResource("unordered.txt").toURI());
+		List<String> lines = Files.readAllLines(unordered);
+		String text = lines.stream().collect(Collectors.joining());
+		SuffixAutomaton suffixAutomaton = new SuffixAutomaton(text);
+		assertTrue(suffixAutomaton.stateCount() < 2 * text.length());
+		for (String pattern : lines.subList(0, 512))
+		{
+			int count = 0;
+			for (int index = text.indexOf(pattern); index >= 0; index = text.indexOf(pattern, index + 1))
+			{
+				count++;
+			}
+			assertEquals(count, suffixAutomaton.count(pattern), pattern);
+			assertEquals(text.indexOf(pattern), suffixAutomaton.indexOf(pattern), pattern);
+			String absent = pattern + "!";
+			assertFalse(suffixAutomaton.contains(absent));
+		}
+	}
+}
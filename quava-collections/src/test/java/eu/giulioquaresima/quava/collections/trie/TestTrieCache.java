@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import eu.giulioquaresima.quava.collections.trie.TrieCache.EvictionPolicy;
+
+public class TestTrieCache
+{
+	@Test
+	public void testLru()
+	{
+		TrieCache<Integer> cache = new TrieCache<>(3);
+		cache.put("Uno", 1);
+		cache.put("Due", 2);
+		cache.put("Tre", 3);
+		assertEquals(1, cache.get("Uno"));
+		assertTrue(cache.put("Quattro", 4));
+		assertEquals(3, cache.size());
+		assertNull(cache.get("Due"));
+		assertEquals(1, cache.get("Uno"));
+		assertEquals(3, cache.get("Tre"));
+		assertEquals(4, cache.get("Quattro"));
+		assertEquals(1, cache.evictionCount());
+		assertEquals(4, cache.hitCount());
+		assertEquals(1, cache.missCount());
+		assertEquals(0.8, cache.hitRate(), 1e-9);
+	}
+	
+	@Test
+	public void testWeightAndLoad()
+	{
+		TrieCache<String> cache = new TrieCache<>(10, (key, value) -> value.length(), EvictionPolicy.LRU, Character::toLowerCase);
+		AtomicInteger loads = new AtomicInteger();
+		assertEquals("ROUTE-A", cache.getOrLoad("/a", key -> { loads.incrementAndGet(); return "ROUTE-A"; }));
+		assertEquals("ROUTE-A", cache.getOrLoad("/A", key -> { loads.incrementAndGet(); return "?"; }));
+		assertEquals(1, loads.get());
+		assertEquals(7, cache.weight());
+		assertNull(cache.getOrLoad("/b", key -> null));
+		assertEquals(1, cache.loadCount());
+		
+		cache.put("/abc", "abcd");
+		assertEquals(4, cache.weight());
+		assertNull(cache.get("/a"));
+		assertFalse(cache.put("/huge", "01234567890"));
+		assertEquals(1, cache.size());
+		assertEquals("abcd", cache.remove("/ABC"));
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.weight());
+	}
+	
+	@Test
+	public void testTinyLfu()
+	{
+		TrieCache<Integer> cache = new TrieCache<>(2, EvictionPolicy.TINY_LFU);
+		cache.put("hot", 1);
+		cache.put("warm", 2);
+		for (int i = 0; i < 5; i++)
+		{
+			cache.get("hot");
+			cache.get("warm");
+		}
+		assertFalse(cache.put("cold", 3));
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.get("hot"));
+		assertEquals(2, cache.get("warm"));
+		for (int i = 0; i < 10; i++)
+		{
+			cache.get("rising");
+		}
+		assertTrue(cache.put("rising", 4));
+		assertEquals(4, cache.get("rising"));
+		assertEquals(2, cache.size());
+	}
+	
+	@Test
+	public void testTinyLfuWeightedAdmission()
+	{
+		TrieCache<String> cache = new TrieCache<>(10, (key, value) -> value.length(), EvictionPolicy.TINY_LFU, null);
+		cache.put("cold", "xxxx");
+		cache.put("hot", "yyyy");
+		for (int i = 0; i < 5; i++)
+		{
+			cache.get("hot");
+		}
+		cache.get("heavy");
+		cache.get("heavy");
+		// Admitted against the cold entry, the heavy one then evicts the hot one too
+		assertTrue(cache.put("heavy", "zzzzzzz"));
+		assertEquals(1, cache.size());
+		assertEquals("zzzzzzz", cache.get("heavy"));
+		assertEquals(2, cache.evictionCount());
+		
+		// Rejected against the first victim, which stays
+		cache.get("heavy");
+		assertFalse(cache.put("cold", "xxxx"));
+		assertEquals(1, cache.size());
+		assertEquals(7, cache.weight());
+		assertEquals("zzzzzzz", cache.get("heavy"));
+		assertEquals(3, cache.evictionCount());
+	}
+	
+	@Test
+	public void testTinyLfuUpdate()
+	{
+		TrieCache<String> cache = new TrieCache<>(10, (key, value) -> value.length(), EvictionPolicy.TINY_LFU, null);
+		cache.put("rare", "xxxx");
+		cache.put("frequent", "yyyy");
+		for (int i = 0; i < 5; i++)
+		{
+			cache.get("frequent");
+		}
+		// The heavier value of a rarely requested key evicts the frequent one, instead of being rejected
+		assertTrue(cache.put("rare", "zzzzzzz"));
+		assertEquals("zzzzzzz", cache.get("rare"));
+		assertEquals(null, cache.get("frequent"));
+		assertEquals(7, cache.weight());
+		assertEquals(1, cache.evictionCount());
+	}
+}
@@ -16,6 +16,7 @@ package eu.giulioquaresima.quava.collections.trie;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
@@ -23,15 +24,26 @@ import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.Test;
 
 import eu.giulioquaresima.quava.collections.trie.TrieMap.Visitor;
+import eu.giulioquaresima.quava.functions.CodePointTranslator;
 
 
 public class TestTrieMap
@@ -189,6 +201,519 @@ public class TestTrieMap
 		}
 	}
 	
+	@Test
+	public void testMergeFrom()
+	{
+		TrieMap<Integer> base = new TrieMap<>();
+		base.put("Sette", 7);
+		base.put("Settecento", 700);
+		base.put("Otto", 8);
+		base.put("Dieci", null);
+		TrieMap<Integer> delta = new TrieMap<>();
+		delta.put("Sette", 70);
+		delta.put("Settembre", 9);
+		delta.put("Otto", null);
+		delta.put("Nove", 9);
+		delta.put("Dieci", 10);
+		
+		// Like Map.merge, the null value of "Dieci" is absent, and it is not remapped
+		base.mergeFrom(delta, (oldValue, value) -> value == null ? null : oldValue + value);
+		assertEquals(5, base.size());
+		assertEquals(10, base.get("Dieci"));
+		assertEquals(77, base.get("Sette"));
+		assertEquals(700, base.get("Settecento"));
+		assertEquals(9, base.get("Settembre"));
+		assertEquals(9, base.get("Nove"));
+		assertFalse(base.containsKey("Otto"));
+		assertEquals(5, delta.size());
+		assertEquals(70, delta.get("Sette"));
+		
+		Iterator<String> iterator = base.keySet().iterator();
+		assertEquals("Dieci", iterator.next());
+		assertEquals("Nove", iterator.next());
+		assertEquals("Sette", iterator.next());
+		assertEquals("Settecento", iterator.next());
+		assertEquals("Settembre", iterator.next());
+		assertFalse(iterator.hasNext());
+	}
+	
+	@Test
+	public void testRetainAllRemoveAll() throws URISyntaxException, IOException
+	{
+		Path unordered = Paths.get(TestTrieMap.class.getResource("unordered.txt").toURI());
+		Set<String> even = new TreeSet<>(), odd = new TreeSet<>();
+		TrieMap<String> all = new TrieMap<>(), evens = new TrieMap<>();
+		Files.lines(unordered).forEach(line -> {
+			all.put(line, line);
+			if (line.length() % 2 == 0)
+			{
+				even.add(line);
+				evens.put(line, line);
+			}
+			else
+			{
+				odd.add(line);
+			}
+		});
+		
+		TrieMap<String> retained = all.union(new TrieMap<>(), (a, b) -> a);
+		assertTrue(retained.retainAll(evens));
+		assertFalse(retained.retainAll(evens));
+		assertEquals(even.size(), retained.size());
+		assertEquals(new ArrayList<>(even), new ArrayList<>(retained.keySet()));
+		
+		TrieMap<String> removed = all.union(new TrieMap<>(), (a, b) -> a);
+		assertTrue(removed.removeAll(evens));
+		assertFalse(removed.removeAll(evens));
+		assertEquals(odd.size(), removed.size());
+		assertEquals(new ArrayList<>(odd), new ArrayList<>(removed.keySet()));
+		
+		assertEquals(even.size() + odd.size(), all.size());
+	}
+	
+	@Test
+	public void testSetAlgebra()
+	{
+		TrieMap<Integer> left = new TrieMap<>(Character::toLowerCase);
+		left.put("Uno", 1);
+		left.put("Due", 2);
+		left.put("Dueluna", 3);
+		TrieMap<Integer> right = new TrieMap<>(Character::toLowerCase);
+		right.put("due", 20);
+		right.put("tre", 30);
+		right.put("Duelunatica", 40);
+		
+		TrieMap<Integer> union = left.union(right, Integer::sum);
+		assertEquals(5, union.size());
+		assertEquals(22, union.get("DUE"));
+		assertEquals(40, union.get("duelunatica"));
+		assertEquals(3, left.size());
+		assertEquals(3, right.size());
+		
+		TrieMap<Integer> intersection = left.intersection(right, Integer::sum);
+		assertEquals(1, intersection.size());
+		assertEquals(22, intersection.get("due"));
+		assertTrue(left.intersection(right, (a, b) -> null).isEmpty());
+		
+		TrieMap<Integer> difference = left.difference(right);
+		assertEquals(2, difference.size());
+		assertEquals(1, difference.get("uno"));
+		assertEquals(3, difference.get("dueluna"));
+		assertFalse(difference.containsKey("due"));
+	}
+	
+	@Test
+	public void testRemove()
+	{
+		TrieMap<Integer> trieMap = new TrieMap<>();
+		trieMap.put("Sette", 7);
+		trieMap.put("Settecento", 700);
+		trieMap.put("Settembre", 9);
+		assertEquals(700, trieMap.remove("Settecento"));
+		assertEquals(2, trieMap.size());
+		assertEquals(7, trieMap.get("Sette"));
+		assertEquals(9, trieMap.get("Settembre"));
+		assertEquals(9, trieMap.remove("Settembre"));
+		assertEquals(7, trieMap.get("Sette"));
+		assertEquals(7, trieMap.remove("Sette"));
+		assertTrue(trieMap.isEmpty());
+		assertFalse(trieMap.keySet().iterator().hasNext());
+	}
+	
+	@Test
+	public void testRemovePrefix() throws URISyntaxException, IOException
+	{
+		Path unordered = Paths.get(TestTrieMap.class.getResource("unordered.txt").toURI());
+		Path ordered = Paths.get(TestTrieMap.class.getResource("ordered.txt").toURI());
+		TrieMap<String> trieMap = new TrieMap<>(Character::toLowerCase);
+		Files.lines(unordered).forEach(line -> trieMap.put(line, line));
+		
+		List<String> expected = Files.lines(ordered).filter(line -> ! line.startsWith("b")).collect(Collectors.toList());
+		int removed = trieMap.removePrefix("B");
+		assertEquals(expected.size(), trieMap.size());
+		assertEquals(expected.size() + removed, Files.lines(ordered).count());
+		assertEquals(expected, new ArrayList<>(trieMap.keySet()));
+		assertEquals(0, trieMap.removePrefix("b"));
+		
+		assertEquals(1, trieMap.removePrefix("aain"));
+		assertFalse(trieMap.containsKey("aain"));
+		assertTrue(trieMap.containsKey("aag"));
+		
+		assertEquals(trieMap.size(), trieMap.removePrefix(""));
+		assertTrue(trieMap.isEmpty());
+	}
+	
+	@Test
+	public void testRemoveIf() throws URISyntaxException, IOException
+	{
+		Path unordered = Paths.get(TestTrieMap.class.getResource("unordered.txt").toURI());
+		Path ordered = Paths.get(TestTrieMap.class.getResource("ordered.txt").toURI());
+		for (int batchSize : new int[] {0, 1, 64})
+		{
+			TrieMap<String> trieMap = new TrieMap<>();
+			trieMap.setLazyCompaction(batchSize);
+			Files.lines(unordered).forEach(line -> trieMap.put(line, line));
+			
+			List<String> expected = Files.lines(ordered).filter(line -> line.indexOf('e') < 0).collect(Collectors.toList());
+			assertTrue(trieMap.removeIf(entry -> entry.getKey().indexOf('e') >= 0));
+			assertFalse(trieMap.keySet().removeIf(key -> key.indexOf('e') >= 0));
+			assertEquals(expected.size(), trieMap.size());
+			assertEquals(expected, new ArrayList<>(trieMap.keySet()));
+			
+			expected.removeIf(key -> key.length() > 2);
+			for (Iterator<String> iterator = trieMap.values().iterator(); iterator.hasNext(); )
+			{
+				if (iterator.next().length() > 2)
+				{
+					iterator.remove();
+				}
+			}
+			trieMap.compact();
+			assertEquals(expected.size(), trieMap.size());
+			assertEquals(expected, new ArrayList<>(trieMap.keySet()));
+			for (String key : expected)
+			{
+				assertEquals(key, trieMap.get(key));
+			}
+		}
+	}
+	
+	@Test
+	public void testLazyCompaction()
+	{
+		TrieMap<Integer> trieMap = new TrieMap<>();
+		trieMap.setLazyCompaction(3);
+		trieMap.put("ab", 0);
+		trieMap.removeIf(entry -> entry.getValue() % 3 == 0);
+		trieMap.put("", 2);
+		trieMap.put("cc", 3);
+		trieMap.put("bb", 4);
+		trieMap.removeIf(entry -> entry.getValue() % 2 == 0);
+		assertEquals(1, trieMap.size());
+		assertEquals(3, trieMap.get("cc"));
+		assertEquals(Arrays.asList("cc"), new ArrayList<>(trieMap.keySet()));
+		
+		Random random = new Random(28);
+		for (int batchSize : new int[] {1, 2, 3, 16})
+		{
+			TrieMap<Integer> lazy = new TrieMap<>();
+			lazy.setLazyCompaction(batchSize);
+			TreeMap<String, Integer> expected = new TreeMap<>();
+			for (int round = 0; round < 300; round++)
+			{
+				TrieMap<Integer> other = new TrieMap<>();
+				for (int count = random.nextInt(20); count > 0; count--)
+				{
+					String key = randomKey(random);
+					int value = random.nextInt(100);
+					lazy.put(key, value);
+					expected.put(key, value);
+					other.put(randomKey(random), value);
+				}
+				int modulus = 2 + random.nextInt(3);
+				switch (random.nextInt(4))
+				{
+					case 0:
+						lazy.removeIf(entry -> entry.getValue() % modulus == 0);
+						expected.values().removeIf(value -> value % modulus == 0);
+						break;
+					case 1:
+						lazy.retainAll(other);
+						expected.keySet().retainAll(other.keySet());
+						break;
+					case 2:
+						lazy.removeAll(other);
+						expected.keySet().removeAll(other.keySet());
+						break;
+					default:
+						lazy.mergeFrom(other, (a, b) -> (a + b) % modulus == 0 ? null : a + b);
+						other.forEach((key, value) -> expected.merge(key, value, (a, b) -> (a + b) % modulus == 0 ? null : a + b));
+						break;
+				}
+				assertEquals(expected.size(), lazy.size());
+				assertEquals(new ArrayList<>(expected.entrySet()), new ArrayList<>(new TreeMap<>(lazy).entrySet()));
+				assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(lazy.keySet()));
+			}
+		}
+	}
+	
+	private static String randomKey(Random random)
+	{
+		StringBuilder key = new StringBuilder();
+		for (int length = random.nextInt(4); length > 0; length--)
+		{
+			key.append((char) ('a' + random.nextInt(3)));
+		}
+		return key.toString();
+	}
+	
+	@Test
+	public void testMatch() throws URISyntaxException, IOException
+	{
+		Path unordered = Paths.get(TestTrieMap.class.getResource("unordered.txt").toURI());
+		Path ordered = Paths.get(TestTrieMap.class.getResource("ordered.txt").toURI());
+		TrieMap<String> trieMap = new TrieMap<>();
+		Files.lines(unordered).forEach(line -> trieMap.put(line, line));
+		
+		Map<String, String> patterns = new LinkedHashMap<>();
+		patterns.put("a?d*", "a.d.*");
+		patterns.put("[a-f]x*", "[a-f]x.*");
+		patterns.put("*z", ".*z");
+		patterns.put("?", ".");
+		patterns.put("[^a-y]*[!a-w]", "[^a-y].*[^a-w]");
+		patterns.put("*a*b*", ".*a.*b.*");
+		patterns.put("abc", "abc");
+		patterns.put("", "");
+		for (Map.Entry<String, String> pattern : patterns.entrySet())
+		{
+			List<String> expected = Files.lines(ordered).filter(line -> line.matches(pattern.getValue())).collect(Collectors.toList());
+			List<String> actual = new ArrayList<>();
+			trieMap.match(pattern.getKey()).forEachRemaining(entry -> actual.add(entry.getKey()));
+			assertEquals(expected, actual, pattern.getKey());
+		}
+		
+		TrieMap<Integer> caseInsensitive = new TrieMap<>(Character::toLowerCase);
+		caseInsensitive.put("Sette", 7);
+		caseInsensitive.put("Settecento", 700);
+		caseInsensitive.put("Sei", 6);
+		caseInsensitive.put("Se*", -1);
+		List<String> actual = new ArrayList<>();
+		caseInsensitive.match(TriePattern.empty().then("SET").thenAnySequence().thenMatching(c -> c == 'o')).forEachRemaining(entry -> actual.add(entry.getKey()));
+		assertEquals(Arrays.asList("Settecento"), actual);
+		actual.clear();
+		caseInsensitive.match("se\\*").forEachRemaining(entry -> actual.add(entry.getKey()));
+		assertEquals(Arrays.asList("Se*"), actual);
+	}
+	
+	@Test
+	public void testComputeFamily() throws URISyntaxException, IOException
+	{
+		Path unordered = Paths.get(TestTrieMap.class.getResource("unordered.txt").toURI());
+		Map<String, Integer> expected = new TreeMap<>();
+		TrieMap<Integer> frequencies = new TrieMap<>();
+		Files.lines(unordered).forEach(line -> {
+			expected.merge(line, 1, Integer::sum);
+			assertEquals(expected.get(line), frequencies.merge(line, 1, Integer::sum));
+		});
+		assertEquals(expected, new TreeMap<>(frequencies));
+		assertEquals(expected.size(), frequencies.size());
+		
+		TrieMap<Integer> trieMap = new TrieMap<>();
+		assertEquals(3, trieMap.computeIfAbsent("Tre", String::length));
+		assertEquals(3, trieMap.computeIfAbsent("Tre", key -> 33));
+		assertEquals(null, trieMap.computeIfAbsent("Trenta", key -> null));
+		assertEquals(null, trieMap.computeIfPresent("Trenta", (key, value) -> 30));
+		assertEquals(6, trieMap.compute("Trenta", (key, value) -> value == null ? key.length() : value + 1));
+		assertEquals(7, trieMap.compute("Trenta", (key, value) -> value == null ? key.length() : value + 1));
+		assertEquals(2, trieMap.size());
+		assertEquals(null, trieMap.compute("Tre", (key, value) -> null));
+		assertEquals(7, trieMap.get("Trenta"));
+		assertEquals(null, trieMap.merge("Trenta", 1, (a, b) -> null));
+		assertTrue(trieMap.isEmpty());
+		assertFalse(trieMap.keySet().iterator().hasNext());
+		
+		assertEquals(null, trieMap.putIfAbsent("Uno", 1));
+		assertEquals(1, trieMap.putIfAbsent("Uno", 11));
+		assertEquals(10, trieMap.computeIfPresent("Uno", (key, value) -> value * 10));
+		assertThrows(IllegalStateException.class, () -> trieMap.compute("Undici", (key, value) -> { throw new IllegalStateException(); }));
+		assertThrows(IllegalStateException.class, () -> trieMap.compute("Uno", (key, value) -> { throw new IllegalStateException(); }));
+		assertEquals(1, trieMap.size());
+		assertEquals(10, trieMap.get("Uno"));
+		assertEquals(1, trieMap.removePrefix("U"));
+		assertTrue(trieMap.isEmpty());
+	}
+	
+	@Test
+	public void testForEach() throws URISyntaxException, IOException
+	{
+		Path unordered = Paths.get(TestTrieMap.class.getResource("unordered.txt").toURI());
+		Path ordered = Paths.get(TestTrieMap.class.getResource("ordered.txt").toURI());
+		TrieMap<Integer> trieMap = new TrieMap<>();
+		Files.lines(unordered).forEach(line -> trieMap.put(line, line.length()));
+		List<String> expected = Files.lines(ordered).collect(Collectors.toList());
+		
+		List<String> keys = new ArrayList<>();
+		trieMap.forEach((key, value) -> {
+			keys.add(key);
+			assertEquals(key.length(), value);
+		});
+		assertEquals(expected, keys);
+		keys.clear();
+		trieMap.forEachKey(keys::add);
+		assertEquals(expected, keys);
+		keys.clear();
+		trieMap.keySet().forEach(keys::add);
+		assertEquals(expected, keys);
+		keys.clear();
+		trieMap.entrySet().forEach(entry -> keys.add(entry.getKey()));
+		assertEquals(expected, keys);
+		List<Integer> values = new ArrayList<>();
+		trieMap.values().forEach(values::add);
+		assertEquals(expected.stream().map(String::length).collect(Collectors.toList()), values);
+		
+		String prefix = expected.get(expected.size() / 2).substring(0, 1);
+		keys.clear();
+		trieMap.forEach(prefix, (key, value) -> keys.add(key));
+		assertEquals(expected.stream().filter(key -> key.startsWith(prefix)).collect(Collectors.toList()), keys);
+		keys.clear();
+		trieMap.forEach(prefix + "\uFFFF", (key, value) -> keys.add(key));
+		assertTrue(keys.isEmpty());
+		
+		trieMap.replaceAll((key, value) -> value * 2);
+		for (String key : expected)
+		{
+			assertEquals(key.length() * 2, trieMap.get(key));
+		}
+		
+		trieMap.put("", -1);
+		keys.clear();
+		trieMap.forEach("", (key, value) -> keys.add(key));
+		assertEquals("", keys.get(0));
+		assertEquals(expected.size() + 1, keys.size());
+	}
+	
+	@Test
+	public void testRankSelect() throws URISyntaxException, IOException
+	{
+		Path unordered = Paths.get(TestTrieMap.class.getResource("unordered.txt").toURI());
+		TrieMap<String> trieMap = new TrieMap<>();
+		TreeMap<String, String> expected = new TreeMap<>();
+		Files.lines(unordered).forEach(line -> {
+			trieMap.put(line, line);
+			expected.put(line, line);
+		});
+		assertRankSelect(expected, trieMap);
+		
+		Random random = new Random(7);
+		List<String> keys = new ArrayList<>(expected.keySet());
+		for (int index = 0; index < keys.size() / 3; index++)
+		{
+			String key = keys.get(random.nextInt(keys.size()));
+			assertEquals(expected.remove(key), trieMap.remove(key));
+		}
+		String prefix = keys.get(keys.size() / 2).substring(0, 2);
+		expected.keySet().removeIf(key -> key.startsWith(prefix));
+		trieMap.removePrefix(prefix);
+		trieMap.put("", "");
+		expected.put("", "");
+		assertRankSelect(expected, trieMap);
+		
+		TrieMap<String> other = new TrieMap<>();
+		keys.subList(0, keys.size() / 2).forEach(key -> other.put(key, key));
+		assertRankSelect(new TreeMap<>(trieMap.union(other, (a, b) -> a)), trieMap.union(other, (a, b) -> a));
+		assertRankSelect(new TreeMap<>(trieMap.intersection(other, (a, b) -> a)), trieMap.intersection(other, (a, b) -> a));
+		assertRankSelect(new TreeMap<>(trieMap.difference(other)), trieMap.difference(other));
+		trieMap.mergeFrom(other, (a, b) -> a);
+		expected.putAll(other);
+		assertRankSelect(expected, trieMap);
+		trieMap.retainAll(other);
+		expected.keySet().retainAll(other.keySet());
+		assertRankSelect(expected, trieMap);
+		
+		assertThrows(IndexOutOfBoundsException.class, () -> trieMap.select(trieMap.size()));
+		assertEquals(0, trieMap.countWithPrefix("\uFFFF"));
+	}
+	
+	private static void assertRankSelect(TreeMap<String, String> expected, TrieMap<String> trieMap)
+	{
+		assertEquals(expected.size(), trieMap.size());
+		assertEquals(expected.size(), trieMap.countWithPrefix(""));
+		int index = 0;
+		for (String key : expected.keySet())
+		{
+			assertEquals(key, trieMap.select(index).getKey());
+			assertEquals(index, trieMap.rank(key));
+			assertEquals(index, trieMap.rank(key + "\u0000") - 1);
+			if (key.length() > 1)
+			{
+				String prefix = key.substring(0, key.length() - 1);
+				assertEquals(expected.subMap(prefix, prefix + "\uFFFF").size(), trieMap.countWithPrefix(prefix));
+				assertEquals(expected.headMap(prefix).size(), trieMap.rank(prefix));
+			}
+			index++;
+		}
+	}
+	
+	@Test
+	public void testCodePoints()
+	{
+		TrieMap<String> trieMap = TrieMap.withCodePointTranslator(CodePointTranslator.caseFolding());
+		assertEquals(null, trieMap.put("Stra\u00DFe", "street"));
+		assertEquals("street", trieMap.get("STRASSE"));
+		assertEquals("street", trieMap.get("strasse"));
+		assertEquals("street", trieMap.put("STRASSE", "road"));
+		assertEquals(1, trieMap.size());
+		assertEquals(null, trieMap.get("STRAS"));
+		trieMap.put("mass", "measure");
+		trieMap.put("\uD83D\uDE00x", "smile");
+		trieMap.put("\u03A3\u038A\u03A3\u03A5\u03A6\u039F\u03A3", "Sisyphus");
+		
+		String text = "Die strasse, das Ma\u00DF: \uD83D\uDE00X \uD83D\uDE00 \u03C3\u03AF\u03C3\u03C5\u03C6\u03BF\u03C2!";
+		List<String> matches = new ArrayList<>();
+		assertEquals(4, trieMap.findAll(text, (entry, start, end) -> matches.add(text.substring(start, end) + "=" + entry.getValue())));
+		assertEquals(Arrays.asList("strasse=road", "Ma\u00DF=measure", "\uD83D\uDE00X=smile", "\u03C3\u03AF\u03C3\u03C5\u03C6\u03BF\u03C2=Sisyphus"), matches);
+		
+		// A match cannot end inside the expansion of a code point
+		trieMap.put("s", "s");
+		matches.clear();
+		trieMap.findAll("\u00DF", (entry, start, end) -> matches.add(entry.getValue()));
+		assertTrue(matches.isEmpty());
+		
+		assertEquals(1, trieMap.removePrefix("STRA\u00DF"));
+		assertEquals(null, trieMap.get("Stra\u00DFe"));
+		assertEquals("smile", trieMap.remove("\uD83D\uDE00X"));
+		assertEquals(3, trieMap.size());
+		assertEquals(2, trieMap.union(new TrieMap<>(), (a, b) -> a).findAll("MASS S", (entry, start, end) -> {}));
+		assertThrows(IllegalArgumentException.class, () -> new TrieSegmenter<>(trieMap));
+		
+		// An unpaired trailing surrogate is a code point of its own, in the keys and in the texts
+		assertEquals(null, trieMap.put("Lone\uD83D", "lone"));
+		assertTrue(trieMap.containsKey("LONE\uD83D"));
+		assertEquals("lone", trieMap.get("lone\uD83D"));
+		assertEquals(1, trieMap.findAll("A lone\uD83D", (entry, start, end) -> assertEquals(7, end)));
+		assertEquals(0, trieMap.findAll("lone\uD83D\uDE00", (entry, start, end) -> {}));
+		assertEquals("lone", trieMap.remove("Lone\uD83D"));
+	}
+	
+	@Test
+	public void testParallelBuild() throws URISyntaxException, IOException
+	{
+		Path unordered = Paths.get(TestTrieMap.class.getResource("unordered.txt").toURI());
+		List<Map.Entry<String, String>> entries = Files.lines(unordered)
+				.map(line -> new AbstractMap.SimpleEntry<>(line, line))
+				.collect(Collectors.toList());
+		entries.add(new AbstractMap.SimpleEntry<>("", "empty"));
+		entries.add(new AbstractMap.SimpleEntry<>(entries.get(0).getKey(), "last"));
+		TreeMap<String, String> expected = new TreeMap<>();
+		entries.forEach(entry -> expected.put(entry.getKey(), entry.getValue()));
+		TrieMap<String> caseInsensitive = new TrieMap<>(Character::toLowerCase);
+		entries.forEach(entry -> caseInsensitive.put(entry.getKey(), entry.getValue()));
+		
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try
+		{
+			TrieMap<String> trieMap = TrieMap.parallelBuild(entries, null, pool);
+			assertEquals(expected, new TreeMap<>(trieMap));
+			assertEquals("last", trieMap.get(entries.get(0).getKey()));
+			assertRankSelect(expected, trieMap);
+			trieMap.put("zzz", "zzz");
+			trieMap.remove("");
+			assertEquals(expected.size(), trieMap.size());
+			
+			TrieMap<String> parallelCaseInsensitive = TrieMap.parallelBuild(entries, Character::toLowerCase, pool);
+			assertEquals(caseInsensitive.size(), parallelCaseInsensitive.size());
+			assertEquals(new ArrayList<>(caseInsensitive.entrySet()), new ArrayList<>(parallelCaseInsensitive.entrySet()));
+			
+			assertTrue(TrieMap.parallelBuild(new ArrayList<Map.Entry<String, String>>(), null, pool).isEmpty());
+			entries.add(new AbstractMap.SimpleEntry<>(null, "null"));
+			assertThrows(IllegalArgumentException.class, () -> TrieMap.parallelBuild(entries, null, pool));
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+	
 	public static void main(String[] args) throws URISyntaxException, IOException
 	{
 		TestTrieMap _self = new TestTrieMap();
@@ -196,5 +721,18 @@ public class TestTrieMap
 		_self.testOrder();
 		_self.testCase();
 		_self.testFindAll();
+		_self.testMergeFrom();
+		_self.testRetainAllRemoveAll();
+		_self.testSetAlgebra();
+		_self.testRemove();
+		_self.testRemovePrefix();
+		_self.testRemoveIf();
+		_self.testLazyCompaction();
+		_self.testMatch();
+		_self.testComputeFamily();
+		_self.testForEach();
+		_self.testRankSelect();
+		_self.testCodePoints();
+		_self.testParallelBuild();
 	}
 }
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+public class TestTrieMatcher
+{
+	private static TrieMap<String> dictionary()
+	{
+		TrieMap<String> trieMap = new TrieMap<>(Character::toLowerCase);
+		trieMap.put("fundament", "FUNDAMENT");
+		trieMap.put("fundamental", "FUNDAMENTAL");
+		trieMap.put("data", "DATA");
+		trieMap.put("structure", "STRUCTURE");
+		return trieMap;
+	}
+	
+	private static List<String> documents(int count)
+	{
+		return IntStream.range(0, count)
+				.mapToObj(index -> index % 3 == 0 ? "Fundamental data " + index : index % 3 == 1 ? "Nothing " + index : "A data structure, " + index)
+				.collect(Collectors.toList());
+	}
+	
+	private static String expected(TrieMap<String> trieMap, long index, String document)
+	{
+		StringBuilder string = new StringBuilder().append(index).append(':');
+		trieMap.findAll(document, (entry, start, end) -> string.append(' ').append(document, start, end));
+		return string.toString();
+	}
+	
+	@Test
+	public void testOrdered()
+	{
+		TrieMap<String> trieMap = dictionary();
+		List<String> documents = documents(1000);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			TrieMatcher<String> matcher = new TrieMatcher<>(trieMap, executor, 16);
+			List<String> actual = new ArrayList<>();
+			matcher.match(documents.iterator(), true).forEachRemaining(result -> actual.add(result.toString()));
+			List<String> expected = new ArrayList<>();
+			for (int index = 0; index < documents.size(); index++)
+			{
+				expected.add(expected(trieMap, index, documents.get(index)));
+			}
+			assertEquals(expected, actual);
+			
+			try (Stream<TrieMatcher.Result<String>> results = matcher.match(documents.stream(), false))
+			{
+				List<String> unordered = results.map(Object::toString).collect(Collectors.toList());
+				Collections.sort(unordered);
+				Collections.sort(expected);
+				assertEquals(expected, unordered);
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void testResult()
+	{
+		TrieMatcher<String> matcher = new TrieMatcher<>(dictionary());
+		Iterator<TrieMatcher.Result<String>> results = matcher.match(Collections.singletonList("The fundamental data structure").iterator(), true);
+		TrieMatcher.Result<String> result = results.next();
+		assertFalse(results.hasNext());
+		assertEquals(3, result.size());
+		assertEquals("FUNDAMENTAL", result.entry(0).getValue());
+		assertEquals(4, result.start(0));
+		assertEquals(15, result.end(0));
+		assertEquals("STRUCTURE", result.entry(2).getValue());
+		assertThrows(IndexOutOfBoundsException.class, () -> result.start(3));
+	}
+	
+	@Test
+	public void testBackpressure()
+	{
+		AtomicInteger pulled = new AtomicInteger();
+		Iterator<String> documents = documents(200).stream().peek(document -> pulled.incrementAndGet()).iterator();
+		Iterator<TrieMatcher.Result<String>> results = new TrieMatcher<>(dictionary(), Runnable::run, 8).match(documents, true);
+		for (int delivered = 0; results.hasNext(); delivered++)
+		{
+			assertTrue(pulled.get() - delivered <= 8);
+			results.next();
+		}
+		assertEquals(200, pulled.get());
+	}
+	
+	@Test
+	public void testFailure()
+	{
+		MatchingEngine<String> failing = (text, visitor) -> {
+			throw new IllegalStateException(text.toString());
+		};
+		Iterator<TrieMatcher.Result<String>> results = new TrieMatcher<>(failing, Runnable::run, 2).match(documents(3).iterator(), false);
+		CompletionException exception = assertThrows(CompletionException.class, results::next);
+		assertTrue(exception.getCause() instanceof IllegalStateException);
+	}
+	
+	@Test
+	public void testRejection()
+	{
+		for (boolean ordered : new boolean[] {true, false})
+		{
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			executor.shutdown();
+			Iterator<TrieMatcher.Result<String>> results = new TrieMatcher<>(dictionary(), executor, 2).match(documents(3).iterator(), ordered);
+			for (int document = 0; document < 3; document++)
+			{
+				assertTrue(results.hasNext());
+				CompletionException exception = assertThrows(CompletionException.class, results::next);
+				assertTrue(exception.getCause() instanceof RejectedExecutionException);
+			}
+			assertFalse(results.hasNext());
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import eu.giulioquaresima.quava.functions.CodePointTranslator;
+
+public class TestTrieMetrics
+{
+	@Test
+	public void testMetrics()
+	{
+		TrieMap<Integer> trieMap = new TrieMap<>();
+		TrieMetrics metrics = new TrieMetrics();
+		trieMap.setListener(metrics);
+		trieMap.put("b", 1);
+		trieMap.put("a", 2);
+		trieMap.put("abcd", 3);
+		// the root's window is allocated then widened, then "a", "ab" and "abc" get a window each
+		assertEquals(5, metrics.childrenResizeCount());
+		
+		assertEquals(3, trieMap.get("abcd"));
+		assertEquals(null, trieMap.get("abc"));
+		assertEquals(null, trieMap.get("abx"));
+		assertEquals(null, trieMap.get("z"));
+		assertEquals(4, metrics.lookupCount());
+		assertEquals(1, metrics.hitCount());
+		assertEquals(3, metrics.missCount());
+		assertEquals(0.25, metrics.hitRatio());
+		long[] depths = metrics.depthHistogram();
+		assertEquals(1, depths[TrieMetrics.bucket(0)]);
+		assertEquals(2, depths[TrieMetrics.bucket(3)]);
+		assertEquals(1, depths[TrieMetrics.bucket(4)]);
+		
+		assertEquals(3, trieMap.findAll("abcd b a", (entry, start, end) -> {}));
+		assertEquals(0, trieMap.findAll("xyz", (entry, start, end) -> {}));
+		assertEquals(2, metrics.scanCount());
+		assertEquals(11, metrics.scannedChars());
+		assertEquals(3, metrics.matchCount());
+		assertEquals(1, metrics.matchHistogram()[TrieMetrics.bucket(0)]);
+		assertEquals(1, metrics.matchHistogram()[TrieMetrics.bucket(3)]);
+		assertTrue(metrics.nanosPerKilochar() >= 0);
+		
+		metrics.reset();
+		trieMap.setListener(null);
+		trieMap.get("a");
+		assertEquals(0, metrics.lookupCount());
+		assertTrue(Double.isNaN(metrics.hitRatio()));
+	}
+	
+	@Test
+	public void testCodePointDepth()
+	{
+		TrieMap<Integer> trieMap = TrieMap.withCodePointTranslator(CodePointTranslator.caseFolding());
+		trieMap.put("\u00DF\u00DF", 1);
+		trieMap.put("\uD83D\uDE00", 2);
+		List<Integer> depths = new ArrayList<>();
+		trieMap.setListener(new TrieMapListener()
+		{
+			@Override
+			public void lookedUp(boolean hit, int depth)
+			{
+				depths.add(hit ? depth : -depth);
+			}
+		});
+		// The depth counts the edges of the translated path, not the chars of the key
+		assertEquals(1, trieMap.get("\u00DF\u00DF"));
+		assertEquals(1, trieMap.get("SSSS"));
+		assertEquals(null, trieMap.get("\u00DFx"));
+		assertEquals(2, trieMap.get("\uD83D\uDE00"));
+		assertEquals(null, trieMap.get("x"));
+		assertEquals(Arrays.asList(4, 4, -2, 2, 0), depths);
+	}
+}
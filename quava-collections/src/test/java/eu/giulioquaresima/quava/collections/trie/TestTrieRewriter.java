@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URISyntaxException;
+import java.nio.CharBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import eu.giulioquaresima.quava.functions.CodePointTranslator;
+
+public class TestTrieRewriter
+{
+	@Test
+	public void testRewrite() throws IOException
+	{
+		TrieMap<String> trieMap = new TrieMap<>(Character::toLowerCase);
+		trieMap.put("fundament", "F");
+		trieMap.put("fundamental", "FL");
+		trieMap.put("data", "[redacted]");
+		trieMap.put("greedy", "");
+		TrieRewriter<String> rewriter = TrieRewriter.of(trieMap);
+		
+		String text = "It is fundamental and a Fundament of this data structure to be greedy. Greedygreedy!";
+		String expected = "It is FL and a F of this [redacted] structure to be . !";
+		assertEquals(expected, rewriter.rewrite(text));
+		
+		CharBuffer charBuffer = CharBuffer.allocate(text.length());
+		assertEquals(6, rewriter.rewrite(text, charBuffer));
+		charBuffer.flip();
+		assertEquals(expected, charBuffer.toString());
+		
+		StringWriter writer = new StringWriter();
+		assertEquals(6, rewriter.rewrite(new StringReader(text), writer, 4));
+		assertEquals(expected, writer.toString());
+		
+		TrieRewriter<String> upperCase = new TrieRewriter<>(trieMap, entry -> entry.getKey().length() > 4 ? entry.getKey().toUpperCase() : null);
+		assertEquals("It is FUNDAMENTAL and a FUNDAMENT of this data structure to be GREEDY. GREEDYGREEDY!", upperCase.rewrite(text));
+	}
+	
+	@Test
+	public void testCodePoints() throws IOException
+	{
+		TrieMap<String> trieMap = TrieMap.withCodePointTranslator(CodePointTranslator.identity());
+		// A key starting with a lone low surrogate must not match inside a pair
+		trieMap.put("\uDE00x", "split");
+		trieMap.put("\uD83D\uDE00y", ":)");
+		TrieRewriter<String> rewriter = TrieRewriter.of(trieMap);
+		
+		// The first pair straddles the end of the first read buffer
+		String text = "aaaaaaaaaaaaaaa\uD83D\uDE00x \uD83D\uDE00y";
+		String expected = "aaaaaaaaaaaaaaa\uD83D\uDE00x :)";
+		assertEquals(expected, rewriter.rewrite(text));
+		for (int bufferSize : new int[] {16, 64})
+		{
+			StringBuilder actual = new StringBuilder();
+			assertEquals(1, rewriter.rewrite(new StringReader(text), actual, bufferSize));
+			assertEquals(expected, actual.toString());
+		}
+		
+		// An unpaired high surrogate ending the text is matched once the end is reached
+		trieMap.put("z\uD83D", "!");
+		StringBuilder actual = new StringBuilder();
+		assertEquals(1, rewriter.rewrite(new StringReader("aaaaaaaaaaaaaaaz\uD83D"), actual, 16));
+		assertEquals("aaaaaaaaaaaaaaa!", actual.toString());
+		assertEquals("z\uD83D\uDE00!", rewriter.rewrite("z\uD83D\uDE00z\uD83D"));
+	}
+	
+	@Test
+	public void testStreaming() throws URISyntaxException, IOException
+	{
+		Path unordered = Paths.get(TestTrieRewriter.class.getResource("unordered.txt").toURI());
+		List<String> lines = Files.readAllLines(unordered);
+		String text = lines.stream().collect(Collectors.joining(" "));
+		TrieMap<String> trieMap = new TrieMap<>();
+		lines.stream().filter(line -> line.length() > 2).forEach(line -> trieMap.put(line, line.toUpperCase()));
+		TrieRewriter<String> rewriter = TrieRewriter.of(trieMap);
+		
+		StringBuilder expected = new StringBuilder();
+		int expectedCount = rewriter.rewrite(text, expected);
+		for (int bufferSize : new int[] {1, 7, 64, 8192})
+		{
+			StringBuilder actual = new StringBuilder();
+			assertEquals(expectedCount, rewriter.rewrite(new StringReader(text), actual, bufferSize));
+			assertEquals(expected.toString(), actual.toString());
+		}
+		assertEquals(expectedCount, trieMap.findAll(text, (entry, start, end) -> {}));
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import eu.giulioquaresima.quava.collections.trie.TrieMap.Visitor;
+
+public class TestTrieSegmenter
+{
+	private static TrieMap<Double> dictionary()
+	{
+		TrieMap<Double> dictionary = new TrieMap<>(Character::toLowerCase);
+		for (String word : new String[] {"the", "them", "theme", "me", "men", "end", "ending", "in", "g", "at", "table", "tab", "le"})
+		{
+			dictionary.put(word, -1.0);
+		}
+		return dictionary;
+	}
+	
+	@Test
+	public void testMaximumMatch()
+	{
+		TrieSegmenter<Double> segmenter = new TrieSegmenter<>(dictionary());
+		String text = "ThemendingXtable";
+		List<String> segments = new ArrayList<>();
+		Visitor<Double> collector = (entry, start, end) -> segments.add(entry == null ? "?" + text.substring(start, end) : text.substring(start, end));
+		
+		assertEquals(7, segmenter.forwardMaximumMatch(text, collector));
+		assertEquals(Arrays.asList("Theme", "?n", "?d", "in", "g", "?X", "table"), segments);
+		
+		segments.clear();
+		assertEquals(4, segmenter.backwardMaximumMatch(text, collector));
+		assertEquals(Arrays.asList("Them", "ending", "?X", "table"), segments);
+	}
+	
+	@Test
+	public void testSupplementaryCodePoints()
+	{
+		TrieMap<Double> dictionary = new TrieMap<>();
+		dictionary.put("\uD83D\uDE00x", -1.0);
+		dictionary.put("ab", -1.0);
+		TrieSegmenter<Double> segmenter = new TrieSegmenter<>(dictionary);
+		String text = "ab\uD83D\uDE00x";
+		List<String> segments = new ArrayList<>();
+		Visitor<Double> collector = (entry, start, end) -> segments.add(entry == null ? "?" + text.substring(start, end) : text.substring(start, end));
+		
+		assertEquals(2, segmenter.forwardMaximumMatch(text, collector));
+		assertEquals(Arrays.asList("ab", "\uD83D\uDE00x"), segments);
+		
+		segments.clear();
+		assertEquals(2, segmenter.backwardMaximumMatch(text, collector));
+		assertEquals(Arrays.asList("ab", "\uD83D\uDE00x"), segments);
+	}
+	
+	@Test
+	public void testBestSegmentation()
+	{
+		TrieSegmenter<Double> segmenter = new TrieSegmenter<>(dictionary());
+		assertEquals(Arrays.asList("Them", "ending", "X", "table"), segmenter.bestSegmentation("ThemendingXtable"));
+		assertEquals(Arrays.asList(), segmenter.bestSegmentation(""));
+		
+		TrieMap<Double> weighted = dictionary();
+		weighted.put("mend", -0.1);
+		weighted.put("ing", -0.1);
+		TrieSegmenter<Double> weightedSegmenter = new TrieSegmenter<>(weighted, Double::doubleValue, -10.0);
+		List<String> segments = new ArrayList<>();
+		List<Double> weights = new ArrayList<>();
+		String text = "themending";
+		assertEquals(3, weightedSegmenter.bestSegmentation(text, (entry, start, end) -> {
+			segments.add(text.substring(start, end));
+			weights.add(entry.getValue());
+		}));
+		assertEquals(Arrays.asList("the", "mend", "ing"), segments);
+		assertEquals(Arrays.asList(-1.0, -0.1, -0.1), weights);
+		
+		segments.clear();
+		weightedSegmenter.bestSegmentation("?", (entry, start, end) -> {
+			assertNull(entry);
+			segments.add("?");
+		});
+		assertEquals(Arrays.asList("?"), segments);
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2024 Giulio Quaresima
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package eu.giulioquaresima.quava.collections.trie;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class TestTrieSet
+{
+	@Test
+	public void testBuildFromSorted() throws URISyntaxException, IOException
+	{
+		Path ordered = Paths.get(TestTrieSet.class.getResource("ordered.txt").toURI());
+		List<String> lines = Files.readAllLines(ordered);
+		TrieSet.Builder builder = new TrieSet.Builder();
+		lines.forEach(builder::add);
+		TrieSet trieSet = builder.build();
+		assertEquals(lines.size(), trieSet.size());
+		assertEquals(lines, new ArrayList<>(trieSet));
+		for (String line : lines)
+		{
+			assertTrue(trieSet.contains(line));
+			assertFalse(trieSet.contains(line + "!"));
+		}
+		assertFalse(trieSet.contains(""));
+		assertTrue(trieSet.stateCount() < lines.stream().mapToInt(String::length).sum() / 2);
+	}
+	
+	@Test
+	public void testSuffixSharing()
+	{
+		TrieSet trieSet = TrieSet.copyOf(Arrays.asList("tapping", "taps", "tap", "tops", "topping", "top", "tap"));
+		assertEquals(6, trieSet.size());
+		assertEquals(Arrays.asList("tap", "tapping", "taps", "top", "topping", "tops"), new ArrayList<>(trieSet));
+		// the root, "t", the state shared by "ta" and "to", then "tap", "tapp", "tappi", "tappin"
+		// and a single final state shared by "tapping" and "taps"
+		assertEquals(8, trieSet.stateCount());
+		
+		TrieSet caseInsensitive = TrieSet.copyOf(Arrays.asList("Data", "Fundament", "FUNDAMENTAL", ""), Character::toLowerCase);
+		assertTrue(caseInsensitive.contains("DATA"));
+		assertTrue(caseInsensitive.contains(""));
+		assertEquals(Arrays.asList("", "data", "fundament", "fundamental"), new ArrayList<>(caseInsensitive));
+		
+		List<String> matches = new ArrayList<>();
+		String text = "It is fundamental and a fundament of this data structure";
+		assertEquals(3, caseInsensitive.findAll(text, (start, end) -> matches.add(text.substring(start, end))));
+		assertEquals(Arrays.asList("fundamental", "fundament", "data"), matches);
+	}
+	
+	@Test
+	public void testOutOfOrder()
+	{
+		TrieSet.Builder builder = new TrieSet.Builder().add("b");
+		assertThrows(IllegalArgumentException.class, () -> builder.add("a"));
+		builder.add("b");
+		builder.add("ba");
+		assertThrows(IllegalArgumentException.class, () -> builder.add("b"));
+		assertEquals(2, builder.build().size());
+		assertThrows(IllegalStateException.class, () -> builder.add("c"));
+	}
+}
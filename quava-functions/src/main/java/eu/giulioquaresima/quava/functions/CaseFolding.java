@@ -0,0 +1,84 @@
+package eu.giulioquaresima.quava.functions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The full case folding, derived from the {@link Locale#ROOT} upper case mapping
+ * followed by the lower case one: this way the one-to-many mappings,
+ * like &szlig; to {@code SS}, are applied as well.
+ * <p>
+ * The mappings of the Basic Multilingual Plane are precomputed into a two-stage table,
+ * whose blocks of 256 chars are allocated only if some char of the block
+ * is not mapped to itself; the surrogates, which never occur as the mapping
+ * of a char, are used as the indexes of the multiple code points mappings.
+ *
+ * @author Giulio Quaresima (giulio.quaresima--at--gmail.com)
+ */
+final class CaseFolding implements CodePointTranslator
+{
+    static final CaseFolding INSTANCE = new CaseFolding();
+
+    private static final char[][] BLOCKS = new char[256][];
+    private static final int[][] EXPANSIONS;
+
+    static {
+        List<int[]> expansions = new ArrayList<>();
+        for (int codePoint = 0; codePoint <= Character.MAX_VALUE; codePoint++) {
+            if (Character.isSurrogate((char) codePoint)) {
+                continue;
+            }
+            String folded = String.valueOf((char) codePoint).toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+            char mapped;
+            if (folded.length() == 1) {
+                mapped = folded.charAt(0);
+            }
+            else {
+                int[] codePoints = folded.codePoints().toArray();
+                if (codePoints.length > MAX_EXPANSION) {
+                    throw new AssertionError(String.format("U+%04X is folded into %d code points", codePoint, codePoints.length));
+                }
+                mapped = (char) (Character.MIN_SURROGATE + expansions.size());
+                expansions.add(codePoints);
+            }
+            if (mapped != codePoint) {
+                char[] block = BLOCKS[codePoint >>> 8];
+                if (block == null) {
+                    block = BLOCKS[codePoint >>> 8] = new char[256];
+                    for (int index = 0; index < block.length; index++) {
+                        block[index] = (char) ((codePoint & 0xFF00) | index);
+                    }
+                }
+                block[codePoint & 0xFF] = mapped;
+            }
+        }
+        EXPANSIONS = expansions.toArray(new int[expansions.size()][]);
+    }
+
+    private CaseFolding() {
+    }
+
+    @Override
+    public int translate(int codePoint, int[] destination) {
+        if (codePoint <= Character.MAX_VALUE) {
+            char[] block = BLOCKS[codePoint >>> 8];
+            if (block == null) {
+                destination[0] = codePoint;
+                return 1;
+            }
+            char mapped = block[codePoint & 0xFF];
+            // The blocks of the surrogates are never allocated, so a surrogate is an expansion
+            if (Character.isSurrogate(mapped)) {
+                int[] expansion = EXPANSIONS[mapped - Character.MIN_SURROGATE];
+                System.arraycopy(expansion, 0, destination, 0, expansion.length);
+                return expansion.length;
+            }
+            destination[0] = mapped;
+            return 1;
+        }
+        destination[0] = Character.toLowerCase(Character.toUpperCase(codePoint));
+        return 1;
+    }
+
+}
@@ -0,0 +1,76 @@
+package eu.giulioquaresima.quava.functions;
+
+import java.util.Objects;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * The code point counterpart of {@link CharUnaryOperator}: it translates
+ * a whole Unicode code point, so that the surrogate pairs are never split,
+ * into zero or more code points, so that one-to-many mappings like
+ * the full case folding of &szlig; into {@code ss} can be expressed.
+ * <p>
+ * The translated code points are written into a caller supplied array,
+ * so that no allocation is needed while translating.
+ *
+ * @author Giulio Quaresima (giulio.quaresima--at--gmail.com)
+ */
+@FunctionalInterface
+public interface CodePointTranslator
+{
+    /**
+     * The maximum count of code points a single code point can be translated into.
+     */
+    int MAX_EXPANSION = 3;
+
+    /**
+     * Translates the given code point.
+     *
+     * @param codePoint the code point to translate
+     * @param destination where the translated code points are written, starting from
+     * index zero; it must have room for at least {@link #MAX_EXPANSION} code points
+     * @return the count of the translated code points, from zero (the code point is
+     * ignored) to {@link #MAX_EXPANSION}
+     */
+    int translate(int codePoint, int[] destination);
+
+    /**
+     * Returns a translator that always returns its input code point.
+     *
+     * @return a translator that always returns its input code point
+     */
+    static CodePointTranslator identity() {
+        return (codePoint, destination) -> {
+            destination[0] = codePoint;
+            return 1;
+        };
+    }
+
+    /**
+     * Returns a one-to-one translator, like {@code Character::toLowerCase}.
+     *
+     * @param operator the operator to apply to every code point
+     * @return a translator that applies {@code operator} to its input
+     * @throws NullPointerException if operator is null
+     */
+    static CodePointTranslator of(IntUnaryOperator operator) {
+        Objects.requireNonNull(operator);
+        return (codePoint, destination) -> {
+            destination[0] = operator.applyAsInt(codePoint);
+            return 1;
+        };
+    }
+
+    /**
+     * Returns a translator implementing the full, locale independent, case folding:
+     * two strings are equal ignoring the case if their translations are equal,
+     * for instance Stra&szlig;e and {@code STRASSE} are both translated into {@code strasse}.
+     * The mappings of the Basic Multilingual Plane are precomputed into tables
+     * the first time this method is called.
+     *
+     * @return the case folding translator
+     */
+    static CodePointTranslator caseFolding() {
+        return CaseFolding.INSTANCE;
+    }
+
+}